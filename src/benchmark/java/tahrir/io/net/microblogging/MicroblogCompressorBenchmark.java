@@ -0,0 +1,78 @@
+package tahrir.io.net.microblogging;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import tahrir.io.crypto.TrCrypto;
+import tahrir.io.net.microblogging.MicroblogCompressor.KnownKeys;
+import tahrir.io.net.microblogging.MicroblogParser.MentionPart;
+import tahrir.io.net.microblogging.MicroblogParser.ParsedPart;
+import tahrir.io.net.microblogging.MicroblogParser.PositionComparator;
+import tahrir.io.net.microblogging.MicroblogParser.TextPart;
+import tahrir.tools.ByteArraySegment;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.SortedMultiset;
+import com.google.common.collect.TreeMultiset;
+
+/**
+ * How long compressing and decompressing a microblog takes, for plain text,
+ * for a mention sent by key id, and for a mention sent with its key in full.
+ * The sizes of each are printed when it is set up.
+ *
+ * Run with mvn -P benchmark test-compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MicroblogCompressorBenchmark {
+	@Param({ "text", "mentionById", "fullKey" })
+	public String kind;
+
+	private String xml;
+
+	private boolean fullKeys;
+
+	private ByteArraySegment compressed;
+
+	private KnownKeys knownKeys;
+
+	@Setup
+	public void setup() {
+		final RSAPublicKey friend = TrCrypto.createRsaKeyPair().a;
+		knownKeys = new KnownKeys() {
+
+			public RSAPublicKey getByKeyId(final long keyId) {
+				return keyId == MicroblogCompressor.keyId(friend) ? friend : null;
+			}
+		};
+		final SortedMultiset<ParsedPart> parts = TreeMultiset.create(new PositionComparator());
+		if (kind.equals("text")) {
+			parts.add(new TextPart(0, "Does anyone know if the trains are running tonight? I need to get home before the curfew."));
+		} else {
+			parts.add(new TextPart(0, "Thank you "));
+			parts.add(new MentionPart(1, friend, "friend"));
+			parts.add(new TextPart(2, " for the blankets, the families at the station are very grateful."));
+		}
+		xml = MicroblogParser.getXML(parts);
+		fullKeys = kind.equals("fullKey");
+		compressed = MicroblogCompressor.compress(xml, fullKeys);
+		System.out.println(kind + ": " + xml.getBytes(Charsets.UTF_8).length + " bytes of XML compressed to "
+				+ compressed.length);
+	}
+
+	@Benchmark
+	public ByteArraySegment compress() {
+		return MicroblogCompressor.compress(xml, fullKeys);
+	}
+
+	@Benchmark
+	public String decompress() throws Exception {
+		return MicroblogCompressor.decompress(compressed, knownKeys);
+	}
+}
@@ -2,6 +2,7 @@ package tahrir;
 
 import tahrir.io.net.*;
 import tahrir.io.net.TrPeerManager.Capabilities;
+import tahrir.io.net.microblogging.MicroblogBroadcastScheduler;
 import tahrir.io.net.udpV1.UdpNetworkInterface.UNIConfig;
 
 public class TrConfig {
@@ -11,9 +12,11 @@ public class TrConfig {
 	public String contactBookDir = "contact_book";
 	public String publicKeyChars = "public_key_chars.dat";
 	public String contacts = "contacts.dat";
+	public String keyPairReserveDir = "keyPairReserve";
 	public TrPeerManager.Config peers = new TrPeerManager.Config();
 	// public int udpListenPort = TrUtils.rand.nextInt(50000) + 10000;
 	public String localHostName = null;
 	public Capabilities capabilities = new Capabilities();
 	public UNIConfig udp = new UNIConfig();
+	public MicroblogBroadcastScheduler.Config broadcast = new MicroblogBroadcastScheduler.Config();
 }
@@ -3,6 +3,18 @@ package tahrir;
 public class TrConstants {
 	public static final int PERSISTENCE_CACHE_SIZE = 25;
 
+	public static final int PEER_INFO_FLUSH_SECONDS = 30;
+
+	public static final int PEER_INFO_JOURNAL_FLUSH_SECONDS = 1;
+
+	public static final int PEER_INFO_MAX_DIRTY = 1000;
+
+	public static final int PEER_INFO_STORE_LOCK_STRIPES = 32;
+
+	public static final String PEER_INFO_JOURNAL = "peerInfo.journal";
+
+	public static final String SEED_PEER_CATALOGUE = "seedPeers.catalogue";
+
 	public static final int MAX_UDP_PACKET_SIZE = 1400; // old value was 1450
 
 	public static final int UDP_CONN_INIT_INTERVAL_SECONDS = 2;
@@ -11,18 +23,34 @@ public class TrConstants {
 
 	public static final int DEFAULT_BAOS_SIZE = 2048;
 
+	public static final int KEY_PAIR_POOL_SIZE = 4;
+
+	public static final int KEY_PAIR_POOL_THREADS = 2;
+
 	public static final int DEFAULT_UDP_ACK_TIMEOUT_MS = 1000;
 
 	public static final int UDP_SHORT_MESSAGE_RETRY_ATTEMPTS = 3; // old value was 5
 
 	public static final int UDP_KEEP_ALIVE_DURATION = 7;
 
+	public static final int UDP_RESEND_INTERVAL_SECONDS = 5;
+
+	public static final int UDP_ENCRYPTION_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors());
+
+	public static final int UDP_ENCRYPTION_BATCH_SIZE = 16;
+
 	public static final int PUB_PEER_CONCURRENT_ASSIMILATE = 3;
 
 	public static final int MAINTENANCE_HOPS_TO_LIVE = 8;
 
 	public static final int TOPOLOGY_MAINTENANCE_PEERS_TO_REPLACE = 3;
 
+	public static final int TOPOLOGY_PROBE_BRANCHES = 2;
+
+	public static final int TOPOLOGY_PROBE_VISITED_FILTER_BITS = 128;
+
+	public static final int TOPOLOGY_PROBE_VISITED_FILTER_HASHES = 7;
+
 	public static final int HOPS_TO_LIVE_RESET = 4;
 
 	public static final int WAIT_FROM_FORWARDING_SEC = 30;
@@ -33,10 +61,58 @@ public class TrConstants {
 
 	public static final int BROADCAST_INIT_PRIORITY = 0;
 
+	public static final int SEEN_FILTER_EXPECTED_PER_WINDOW = 2000;
+
+	public static final double SEEN_FILTER_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+	public static final int SEEN_FILTER_WINDOW_MINUTES = 30;
+
+	public static final int SEEN_FILTER_WINDOWS = 4;
+
+	public static final int SEEN_SUMMARY_EXCHANGE_MINUTES = 5;
+
+	public static final int SEEN_SUMMARY_MAX_BITS = 1 << 16;
+
+	public static final int SEEN_SUMMARY_MAX_HASHES = 16;
+
+	public static final int MICROBLOG_ARCHIVE_BUCKET_MINUTES = 10;
+
+	public static final int MICROBLOG_ARCHIVE_BUCKETS = 144;
+
+	public static final int MICROBLOG_ARCHIVE_MAX_PER_BUCKET = 100;
+
+	public static final int MICROBLOG_ARCHIVE_SLICES = 16;
+
+	public static final int MICROBLOG_SYNC_MINUTES = 30;
+
+	public static final int FEED_MAX_LENGTH = 100;
+
+	public static final int FEED_MAX_AUTHORS = 500;
+
+	public static final int FEED_FETCH_MAX = 50;
+
+	public static final int GOSSIP_PUSH_MAX_AGE_MINUTES = 30;
+
+	public static final int GOSSIP_FANOUT_MARGIN = 1;
+
+	public static final int GOSSIP_SIZE_ESTIMATE_NEIGHBOURS = 8;
+
 	public static final int MAINTENANCE_FREQUENCY_MIN = 1;
 
 	public static final int MAX_MICROBLOGS_FOR_VIEWING = 300;
 
+	public static final int MAX_MICROBLOGS_FOR_BROADCAST = 1000;
+
+	public static final int BROADCAST_TTL_MINUTES = 60;
+
+	public static final int BROADCAST_MAX_HOPS = 16;
+
+	public static final int BROADCAST_MAX_CLOCK_SKEW_MINUTES = 5;
+
+	public static final double BROADCAST_PRIORITY_DECAY_PER_MINUTE = 1.0;
+
+	public static final double BROADCAST_PRIORITY_DECAY_PER_HOP = 1.0;
+
 	public static final int SHORTENED_PUBLIC_KEY_SIZE = 4;
 
 	public static final int ID_MAP_SIZE = 500;
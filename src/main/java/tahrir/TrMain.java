@@ -5,6 +5,7 @@ import java.io.*;
 import org.kohsuke.args4j.*;
 import org.slf4j.*;
 
+import tahrir.io.crypto.KeyPairPool;
 import tahrir.tools.TrUtils;
 
 public class TrMain {
@@ -25,6 +26,10 @@ public class TrMain {
 			}
 		}
 		final TrConfig config = readConfiguration(new File(rootDirectory, options.configFile));
+		if (!new File(rootDirectory, config.privateNodeId).exists()) {
+			// Get a key pair for our new identity under way while we start up
+			KeyPairPool.startDefault(new File(rootDirectory, config.keyPairReserveDir));
+		}
 	}
 
 	private static CommandLineOptions readCommandLineOpts(final String[] args) {
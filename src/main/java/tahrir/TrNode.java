@@ -1,11 +1,13 @@
 package tahrir;
 
-import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import tahrir.io.crypto.TrCrypto;
+import tahrir.io.crypto.KeyPairPool;
 import tahrir.io.net.*;
 import tahrir.io.net.microblogging.*;
+import tahrir.io.net.microblogging.ContactBook.ContactAddedListener;
+import tahrir.io.net.microblogging.containers.AuthorFeeds;
+import tahrir.io.net.microblogging.containers.MicroblogArchive;
 import tahrir.io.net.microblogging.containers.MicroblogsForBroadcast;
 import tahrir.io.net.microblogging.containers.MicroblogsForViewing;
 import tahrir.io.net.sessions.AssimilateSession;
@@ -26,7 +28,6 @@ import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
-import java.util.ArrayList;
 
 
 
@@ -107,18 +108,12 @@ public class TrNode {
 		// don't want to be able to call broadcast methods on a seed node
 		if (config.peers.runBroadcast) {
 			sessionMgr.registerSessionClass(MicroblogBroadcastSession.class, MicroblogBroadcastSessionImpl.class);
+			sessionMgr.registerSessionClass(SeenSummarySession.class, SeenSummarySessionImpl.class);
+			sessionMgr.registerSessionClass(MicroblogSyncSession.class, MicroblogSyncSessionImpl.class);
+			sessionMgr.registerSessionClass(FeedSession.class, FeedSessionImpl.class);
 		}
 	}
 
-	public ArrayList<File> getPublicNodeIdFiles() {
-		return Lists.newArrayList(publicNodeIdsDir.listFiles());
-	}
-
-	public File getFileForPublicNode(final PhysicalNetworkLocation addr) {
-		final int hc = Math.abs(addr.hashCode());
-		return new File(publicNodeIdsDir, "pn-" + hc + ".dat");
-	}
-
 	public PrivateNodeId getPrivateNodeId() {
 		return Persistence.loadReadOnly(PrivateNodeId.class, privNodeIdFile);
 	}
@@ -143,6 +138,10 @@ public class TrNode {
 		public final MicroblogsForBroadcast mbsForBroadcast;
 		public final MicroblogsForViewing mbsForViewing;
 		public final IdentityMap idMap;
+		public final SeenSummaries seenSummaries;
+		public final MicroblogArchive archive;
+		public final AuthorFeeds feeds;
+		public final MicroblogSync sync;
 
 		public MicrobloggingClasses(final TrNode node) {
 			contactBook = new ContactBook(
@@ -152,8 +151,19 @@ public class TrNode {
 			idMap = new IdentityMap(spkFinder, contactBook);
 			mbsForBroadcast = new MicroblogsForBroadcast();
 			mbsForViewing = new MicroblogsForViewing(contactBook);
-			incomingMbHandler = new IncomingMicroblogHandler(mbsForViewing, mbsForBroadcast, contactBook, idMap);
-			mbScheduler = new MicroblogBroadcastScheduler(node);
+			archive = new MicroblogArchive();
+			feeds = new AuthorFeeds();
+			incomingMbHandler = new IncomingMicroblogHandler(mbsForViewing, mbsForBroadcast, archive, feeds, contactBook,
+					idMap);
+			seenSummaries = new SeenSummaries(node);
+			sync = new MicroblogSync(node);
+			// catch up on a new contact's feed rather than wait for the next sync
+			contactBook.registerContactAddedListener(new ContactAddedListener() {
+				public void contactAdded(final RSAPublicKey publicKey) {
+					sync.fetchFeed(publicKey);
+				}
+			});
+			mbScheduler = new MicroblogBroadcastScheduler(node, mbsForBroadcast);
 		}
 
 		// move this somewhere else
@@ -171,8 +181,10 @@ public class TrNode {
 
 	public static class PrivateNodeId {
 		public static Tuple2<PrivateNodeId, RemoteNodeAddress> generate() {
-			final Tuple2<RSAPublicKey, RSAPrivateKey> kp = TrCrypto.createRsaKeyPair();
+			return generate(KeyPairPool.getDefault().take());
+		}
 
+		public static Tuple2<PrivateNodeId, RemoteNodeAddress> generate(final Tuple2<RSAPublicKey, RSAPrivateKey> kp) {
 			final PrivateNodeId privateNodeId = new PrivateNodeId();
 			privateNodeId.privateKey = kp.b;
 
@@ -182,5 +194,12 @@ public class TrNode {
 		}
 
 		public RSAPrivateKey privateKey;
+
+		/**
+		 * The sequence number and feed hash of the last microblog we
+		 * authored, which the next one is chained to
+		 */
+		public long lastMicroblogSequence;
+		public byte[] lastMicroblogHash;
 	}
 }
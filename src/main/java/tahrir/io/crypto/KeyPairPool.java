@@ -0,0 +1,195 @@
+package tahrir.io.crypto;
+
+import java.io.File;
+import java.security.interfaces.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.*;
+
+import tahrir.TrConstants;
+import tahrir.tools.*;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Generates RSA key pairs ahead of time on low priority background threads,
+ * so that whoever needs a key pair (a new node, or the hundreds of identities
+ * created by a simulation) rarely has to wait for one to be generated.
+ *
+ * If a reserve directory is given then every pre-generated key pair is also
+ * saved there until it is taken, so the reserve survives restarts.
+ */
+public class KeyPairPool {
+	private static final Logger logger = LoggerFactory.getLogger(KeyPairPool.class);
+
+	private static KeyPairPool defaultPool = null;
+
+	private final BlockingQueue<PooledKeyPair> pool = new LinkedBlockingQueue<PooledKeyPair>();
+
+	private final AtomicInteger pendingGenerations = new AtomicInteger(0);
+
+	private final AtomicInteger reserveFileCounter = new AtomicInteger(0);
+
+	private final ExecutorService generators;
+
+	private final int targetSize;
+
+	private final File reserveDir;
+
+	/**
+	 * The pool shared by everything in this JVM that just needs a fresh key
+	 * pair, it is created (and starts filling) the first time it is asked for
+	 * unless {@link #startDefault(File)} was called first.
+	 */
+	public static synchronized KeyPairPool getDefault() {
+		if (defaultPool == null) {
+			defaultPool = new KeyPairPool(TrConstants.KEY_PAIR_POOL_SIZE, TrConstants.KEY_PAIR_POOL_THREADS, null);
+		}
+		return defaultPool;
+	}
+
+	/**
+	 * Start filling the default pool as early as possible, so that a key pair
+	 * is ready (or at least on its way) by the time one is needed.
+	 *
+	 * @param reserveDir Where the default pool should persist its key pairs,
+	 *        or null to only keep them in memory. Ignored if the default pool
+	 *        has already been started.
+	 */
+	public static synchronized KeyPairPool startDefault(final File reserveDir) {
+		if (defaultPool == null) {
+			defaultPool = new KeyPairPool(TrConstants.KEY_PAIR_POOL_SIZE, TrConstants.KEY_PAIR_POOL_THREADS, reserveDir);
+		}
+		return defaultPool;
+	}
+
+	/**
+	 * @param targetSize How many key pairs to keep ready
+	 * @param threads How many background threads may generate key pairs at once
+	 * @param reserveDir Where to persist pre-generated key pairs, or null to only keep them in memory
+	 */
+	public KeyPairPool(final int targetSize, final int threads, final File reserveDir) {
+		this.targetSize = targetSize;
+		this.reserveDir = reserveDir;
+		generators = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder().setDaemon(true)
+				.setPriority(Thread.MIN_PRIORITY).setNameFormat("KeyPairPool-%d").build());
+		if (reserveDir != null) {
+			loadReserve();
+		}
+		refill();
+	}
+
+	/**
+	 * Get a key pair which nobody else has been given. If the pool is empty
+	 * we wait for one that is already being generated, and only generate one
+	 * in this thread if none is.
+	 */
+	public Tuple2<RSAPublicKey, RSAPrivateKey> take() {
+		PooledKeyPair pooled = pool.poll();
+		try {
+			while (pooled == null && pendingGenerations.get() > 0) {
+				pooled = pool.poll(100, TimeUnit.MILLISECONDS);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (pooled == null) {
+			logger.debug("Pool is empty, generating key pair synchronously");
+			pooled = new PooledKeyPair(TrCrypto.createRsaKeyPair(), null);
+		} else if (pooled.reserveFile != null && !pooled.reserveFile.delete()) {
+			// It must not be handed out again after a restart
+			logger.warn("Failed to delete reserved key pair file {}, discarding it", pooled.reserveFile);
+			pooled = new PooledKeyPair(TrCrypto.createRsaKeyPair(), null);
+		}
+		refill();
+		return pooled.keyPair;
+	}
+
+	public int available() {
+		return pool.size();
+	}
+
+	public void shutdown() {
+		generators.shutdownNow();
+	}
+
+	private void refill() {
+		while (true) {
+			final int pending = pendingGenerations.get();
+			if (pool.size() + pending >= targetSize) {
+				break;
+			}
+			if (pendingGenerations.compareAndSet(pending, pending + 1)) {
+				try {
+					generators.execute(new Generator());
+				} catch (final RejectedExecutionException e) {
+					// We've been shut down
+					pendingGenerations.decrementAndGet();
+					break;
+				}
+			}
+		}
+	}
+
+	private void loadReserve() {
+		if (!reserveDir.exists()) {
+			reserveDir.mkdirs();
+		}
+		for (final File f : reserveDir.listFiles()) {
+			if (!f.getName().startsWith("kp-")) {
+				continue;
+			}
+			try {
+				final ReservedKeyPair reserved = Persistence.loadReadOnly(ReservedKeyPair.class, f);
+				pool.add(new PooledKeyPair(Tuple2.of(reserved.publicKey, reserved.privateKey), f));
+			} catch (final RuntimeException e) {
+				logger.warn("Discarding unreadable reserved key pair " + f, e);
+				f.delete();
+			}
+		}
+		logger.debug("Loaded {} reserved key pairs from {}", pool.size(), reserveDir);
+	}
+
+	private File saveToReserve(final Tuple2<RSAPublicKey, RSAPrivateKey> keyPair) {
+		File f;
+		do {
+			f = new File(reserveDir, "kp-" + System.currentTimeMillis() + "-" + reserveFileCounter.incrementAndGet()
+					+ ".dat");
+		} while (f.exists());
+		final ReservedKeyPair reserved = new ReservedKeyPair();
+		reserved.publicKey = keyPair.a;
+		reserved.privateKey = keyPair.b;
+		Persistence.save(f, reserved);
+		return f;
+	}
+
+	private class Generator implements Runnable {
+		public void run() {
+			try {
+				final Tuple2<RSAPublicKey, RSAPrivateKey> keyPair = TrCrypto.createRsaKeyPair();
+				final File reserveFile = reserveDir == null ? null : saveToReserve(keyPair);
+				pool.add(new PooledKeyPair(keyPair, reserveFile));
+			} catch (final Exception e) {
+				logger.error("Failed to pre-generate key pair", e);
+			} finally {
+				pendingGenerations.decrementAndGet();
+			}
+		}
+	}
+
+	private static class PooledKeyPair {
+		public final Tuple2<RSAPublicKey, RSAPrivateKey> keyPair;
+		public final File reserveFile;
+
+		public PooledKeyPair(final Tuple2<RSAPublicKey, RSAPrivateKey> keyPair, final File reserveFile) {
+			this.keyPair = keyPair;
+			this.reserveFile = reserveFile;
+		}
+	}
+
+	public static class ReservedKeyPair {
+		public RSAPublicKey publicKey;
+		public RSAPrivateKey privateKey;
+	}
+}
@@ -3,19 +3,22 @@ package tahrir.io.crypto;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
-import java.security.KeyFactory;
 import java.security.KeyPair;
-import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.Signature;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
-import java.security.spec.X509EncodedKeySpec;
 
 import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
 import javax.crypto.KeyGenerator;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
@@ -44,14 +47,13 @@ public class TrCrypto {
 	}
 
 	public static Tuple2<RSAPublicKey, RSAPrivateKey> createRsaKeyPair() {
-		try {
-			final KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
-			keyGen.initialize(2048);
-			final KeyPair key = keyGen.generateKeyPair();
-			return Tuple2.of((RSAPublicKey) key.getPublic(), (RSAPrivateKey) key.getPrivate());
-		} catch (final NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
-		}
+		final KeyPair key = TrKeyType.RSA.createKeyPair();
+		return Tuple2.of((RSAPublicKey) key.getPublic(), (RSAPrivateKey) key.getPrivate());
+	}
+
+	public static Tuple2<ECPublicKey, ECPrivateKey> createEcKeyPair() {
+		final KeyPair key = TrKeyType.EC.createKeyPair();
+		return Tuple2.of((ECPublicKey) key.getPublic(), (ECPrivateKey) key.getPrivate());
 	}
 
 	public static TrSymKey createAesKey() {
@@ -83,21 +85,61 @@ public class TrCrypto {
 	}
 
 	public static RSAPublicKey decodeBase64(final String base64String) {
-		final byte[] bytes = BaseEncoding.base64().decode(base64String);
+		return decodeRSAPublicKey(BaseEncoding.base64().decode(base64String));
+	}
+
+	/**
+	 * @param bytes A public key as encoded by {@link RSAPublicKey#getEncoded()}
+	 */
+	public static RSAPublicKey decodeRSAPublicKey(final byte[] bytes) {
+		return (RSAPublicKey) TrKeyType.RSA.decodePublicKey(bytes);
+	}
+
+	/**
+	 * @param bytes A private key as encoded by {@link RSAPrivateKey#getEncoded()}
+	 */
+	public static RSAPrivateKey decodeRSAPrivateKey(final byte[] bytes) {
+		return (RSAPrivateKey) TrKeyType.RSA.decodePrivateKey(bytes);
+	}
+
+	/**
+	 * @param bytes A public key as encoded by {@link ECPublicKey#getEncoded()}
+	 */
+	public static ECPublicKey decodeECPublicKey(final byte[] bytes) {
+		return (ECPublicKey) TrKeyType.EC.decodePublicKey(bytes);
+	}
+
+	/**
+	 * @param bytes A private key as encoded by {@link ECPrivateKey#getEncoded()}
+	 */
+	public static ECPrivateKey decodeECPrivateKey(final byte[] bytes) {
+		return (ECPrivateKey) TrKeyType.EC.decodePrivateKey(bytes);
+	}
+
+	/**
+	 * Derive a symmetric key from our EC private key and the remote's EC public
+	 * key (ECDH), both sides will arrive at the same key without it ever being
+	 * sent over the wire.
+	 */
+	public static TrSymKey createSharedAesKey(final ECPrivateKey myPrivKey, final ECPublicKey remotePubKey) {
 		try {
-			return (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(bytes));
+			final KeyAgreement agreement = KeyAgreement.getInstance("ECDH", "BC");
+			agreement.init(myPrivKey);
+			agreement.doPhase(remotePubKey, true);
+			final byte[] sharedSecret = MessageDigest.getInstance("SHA-256").digest(agreement.generateSecret());
+			return new TrSymKey(new ByteArraySegment(sharedSecret).subsegment(0, 16));
 		} catch (final Exception e) {
 			throw new RuntimeException(e);
 		}
 	}
 
-	public static TrSignature sign(final Object toSign, final RSAPrivateKey privKey) throws TrSerializableException {
+	public static TrSignature sign(final Object toSign, final PrivateKey privKey) throws TrSerializableException {
 		final ByteArrayOutputStream baos = new ByteArrayOutputStream(TrConstants.DEFAULT_BAOS_SIZE);
 		final DataOutputStream dos = new DataOutputStream(baos);
 		try {
 			TrSerializer.serializeTo(toSign, dos);
 			dos.flush();
-			final Signature signature = Signature.getInstance("SHA256withRSA", "BC");
+			final Signature signature = Signature.getInstance(TrKeyType.forKey(privKey).signatureAlgorithm, "BC");
 			signature.initSign(privKey);
 			signature.update(baos.toByteArray());
 			return new TrSignature(signature.sign());
@@ -106,7 +148,7 @@ public class TrCrypto {
 		}
 	}
 
-	public static boolean verify(final TrSignature signature, final Object toVerify, final RSAPublicKey pubKey)
+	public static boolean verify(final TrSignature signature, final Object toVerify, final PublicKey pubKey)
 			throws TrSerializableException {
 		// TODO: We serialize this object and then throw the result away, which
 		// is probably wasteful as frequently the object will be serialized
@@ -115,7 +157,7 @@ public class TrCrypto {
 		final DataOutputStream dos = new DataOutputStream(baos);
 		try {
 			TrSerializer.serializeTo(toVerify, dos);
-			final Signature sig = Signature.getInstance("SHA256withRSA", "BC");
+			final Signature sig = Signature.getInstance(TrKeyType.forKey(pubKey).signatureAlgorithm, "BC");
 			sig.initVerify(pubKey);
 			sig.update(baos.toByteArray());
 			return sig.verify(signature.signature);
@@ -9,7 +9,25 @@ import tahrir.io.serialization.*;
 
 import com.google.common.io.NullOutputStream;
 
+/**
+ * The cryptographic tier of hashing: a SHA-256 digest of an object's
+ * serialized form, for anywhere that someone might try to forge a collision.
+ *
+ * For in-memory deduplication and Bloom filters use the much cheaper
+ * {@link tahrir.tools.TrFastHash} instead.
+ */
 public class TrHash {
+	private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>() {
+		@Override
+		protected MessageDigest initialValue() {
+			try {
+				return MessageDigest.getInstance("SHA-256");
+			} catch (final NoSuchAlgorithmException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
 	public byte[] hash;
 
 	protected TrHash() {
@@ -17,15 +35,12 @@ public class TrHash {
 	}
 
 	public TrHash(final Object toHash, final int maxSize) throws TrSerializableException {
-		MessageDigest digest;
+		final MessageDigest digest = digests.get();
 		try {
-			digest = MessageDigest.getInstance("SHA-256");
 			digest.reset();
 			final DataOutputStream digOS = new DataOutputStream(new DigestOutputStream(new NullOutputStream(), digest));
 			TrSerializer.serializeTo(toHash, digOS);
 			hash = digest.digest();
-		} catch (final NoSuchAlgorithmException e) {
-			throw new RuntimeException(e);
 		} catch (final IOException e) {
 			throw new RuntimeException(e);
 		}
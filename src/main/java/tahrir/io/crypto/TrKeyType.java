@@ -0,0 +1,87 @@
+package tahrir.io.crypto;
+
+import java.security.*;
+import java.security.interfaces.*;
+import java.security.spec.*;
+
+/**
+ * The kinds of public/private key pair that {@link TrCrypto} can create,
+ * decode and sign with, which relies on it having registered BouncyCastle.
+ *
+ * RSA is what node identities have always used, EC keys (on the P-256 curve)
+ * are much faster to generate and sign with, and are far smaller on the wire.
+ * Only RSA keys are used as node identities for now, as node addresses and
+ * microblogs hold RSA keys and the UDP handshake RSA-encrypts the session key.
+ */
+enum TrKeyType {
+	RSA("RSA", null, "SHA256withRSA") {
+		@Override
+		protected void initialize(final KeyPairGenerator keyGen) {
+			keyGen.initialize(2048);
+		}
+	},
+	EC("EC", "BC", "SHA256withECDSA") {
+		@Override
+		protected void initialize(final KeyPairGenerator keyGen) throws InvalidAlgorithmParameterException {
+			keyGen.initialize(new ECGenParameterSpec("secp256r1"));
+		}
+	};
+
+	public final String algorithm;
+	public final String signatureAlgorithm;
+
+	/**
+	 * The JCE provider used to create and decode keys of this type, or null
+	 * for the platform default. BouncyCastle will only sign and agree keys
+	 * with EC keys it created itself.
+	 */
+	private final String provider;
+
+	private TrKeyType(final String algorithm, final String provider, final String signatureAlgorithm) {
+		this.algorithm = algorithm;
+		this.provider = provider;
+		this.signatureAlgorithm = signatureAlgorithm;
+	}
+
+	protected abstract void initialize(KeyPairGenerator keyGen) throws InvalidAlgorithmParameterException;
+
+	KeyPair createKeyPair() {
+		try {
+			final KeyPairGenerator keyGen = provider == null ? KeyPairGenerator.getInstance(algorithm) : KeyPairGenerator
+					.getInstance(algorithm, provider);
+			initialize(keyGen);
+			return keyGen.generateKeyPair();
+		} catch (final GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	PublicKey decodePublicKey(final byte[] x509Encoded) {
+		try {
+			return getKeyFactory().generatePublic(new X509EncodedKeySpec(x509Encoded));
+		} catch (final GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	PrivateKey decodePrivateKey(final byte[] pkcs8Encoded) {
+		try {
+			return getKeyFactory().generatePrivate(new PKCS8EncodedKeySpec(pkcs8Encoded));
+		} catch (final GeneralSecurityException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private KeyFactory getKeyFactory() throws GeneralSecurityException {
+		return provider == null ? KeyFactory.getInstance(algorithm) : KeyFactory.getInstance(algorithm, provider);
+	}
+
+	static TrKeyType forKey(final Key key) {
+		if (key instanceof RSAKey)
+			return RSA;
+		else if (key instanceof ECKey)
+			return EC;
+		else
+			throw new IllegalArgumentException("Unsupported key type: " + key.getAlgorithm());
+	}
+}
@@ -7,7 +7,7 @@ import javax.crypto.spec.*;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
-import tahrir.tools.ByteArraySegment;
+import tahrir.tools.*;
 import tahrir.tools.ByteArraySegment.ByteArraySegmentBuilder;
 
 public class TrSymKey {
@@ -30,8 +30,6 @@ public class TrSymKey {
 		return BLOCK_SIZE;
 	}
 
-	private static final SecureRandom rng = new SecureRandom();
-
 	private final SecretKeySpec skey;
 
 	public TrSymKey(final ByteArraySegment bas) {
@@ -56,9 +54,7 @@ public class TrSymKey {
 	public ByteArraySegment encrypt(final ByteArraySegment toEncrypt) {
 		try {
 			final byte[] iv = new byte[BLOCK_SIZE];
-			synchronized (rng) {
-				rng.nextBytes(iv);
-			}
+			TrRandom.secure().nextBytes(iv);
 			final Cipher cipher = Cipher.getInstance(CIPHER_NAME);
 			cipher.init(Cipher.ENCRYPT_MODE, skey, new IvParameterSpec(iv));
 			final byte[] ciphertext = cipher.doFinal(toEncrypt.array, toEncrypt.offset, toEncrypt.length);
@@ -0,0 +1,134 @@
+package tahrir.io.net;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.slf4j.*;
+
+import tahrir.*;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.io.net.sessions.AssimilateSessionImpl;
+import tahrir.tools.TrUtils;
+
+/**
+ * Runs several assimilations at once when we are short of peers, more the
+ * further we are below minPeers, each through a different relay. Once we
+ * have enough peers any assimilations still waiting are cancelled.
+ */
+public class AssimilationController {
+	private static final Logger logger = LoggerFactory.getLogger(AssimilationController.class);
+
+	private final TrNode node;
+
+	private final TrPeerManager peerManager;
+
+	/**
+	 * Assimilations in progress, keyed by the relay they went through
+	 */
+	private final ConcurrentMap<PhysicalNetworkLocation, AssimilateSessionImpl> inProgress = new ConcurrentHashMap<PhysicalNetworkLocation, AssimilateSessionImpl>();
+
+	public AssimilationController(final TrNode node, final TrPeerManager peerManager) {
+		this.node = node;
+		this.peerManager = peerManager;
+	}
+
+	/**
+	 * How many assimilations we should have running at once given how many
+	 * peers we have
+	 */
+	public int getTargetConcurrency() {
+		final int deficit = peerManager.config.minPeers - peerManager.peers.size();
+		if (deficit <= 0)
+			return 0;
+		final int proportional = (int) Math.ceil((double) deficit * TrConstants.PUB_PEER_CONCURRENT_ASSIMILATE
+				/ peerManager.config.minPeers);
+		return Math.min(deficit, Math.max(1, Math.min(TrConstants.PUB_PEER_CONCURRENT_ASSIMILATE, proportional)));
+	}
+
+	public int getInProgress() {
+		return inProgress.size();
+	}
+
+	/**
+	 * Start or cancel assimilations so that the number in progress matches
+	 * our need for peers
+	 */
+	public synchronized void maintain() {
+		final int target = getTargetConcurrency();
+		if (target == 0) {
+			cancelAll();
+			return;
+		}
+		while (inProgress.size() < target) {
+			final TrPeerInfo relay = peerManager.getPeerForAssimilation(inProgress.keySet());
+			if (relay == null) {
+				logger.debug("No more distinct relays available, running {} of {} assimilations", inProgress.size(),
+						target);
+				break;
+			}
+			start(relay);
+		}
+	}
+
+	public synchronized void cancelAll() {
+		// Emptied first so that the cancelled assimilations finishing don't
+		// look like slots to top up
+		final List<AssimilateSessionImpl> cancelled = new ArrayList<AssimilateSessionImpl>(inProgress.values());
+		inProgress.clear();
+		for (final AssimilateSessionImpl as : cancelled) {
+			as.cancel();
+		}
+	}
+
+	private void start(final TrPeerInfo relay) {
+		final PhysicalNetworkLocation relayAddress = relay.remoteNodeAddress.physicalLocation;
+		final AssimilateSessionImpl as = createSession();
+		inProgress.put(relayAddress, as);
+		// If we can't even reach the relay leave the slot for the next
+		// maintenance, otherwise an unreachable relay would be retried in a
+		// tight loop
+		final Runnable onFailure = new Runnable() {
+
+			public void run() {
+				inProgress.remove(relayAddress, as);
+			}
+		};
+		final Runnable onDone = new Runnable() {
+
+			public void run() {
+				if (inProgress.remove(relayAddress, as)) {
+					// Top up (or cancel the rest) straight away rather than
+					// waiting for the next maintenance
+					scheduleMaintain();
+				}
+			}
+		};
+		startAssimilation(as, relay, onFailure, onDone);
+	}
+
+	protected void scheduleMaintain() {
+		TrUtils.executor.execute(new Runnable() {
+
+			public void run() {
+				try {
+					maintain();
+				} catch (final Exception e) {
+					logger.error("Error maintaining assimilations", e);
+				}
+			}
+		});
+	}
+
+	protected AssimilateSessionImpl createSession() {
+		return node.sessionMgr.getOrCreateLocalSession(AssimilateSessionImpl.class);
+	}
+
+	/**
+	 * Separate from {@link #start(TrPeerInfo)} so that tests can see what
+	 * would be started without a network
+	 */
+	protected void startAssimilation(final AssimilateSessionImpl as, final TrPeerInfo relay,
+			final Runnable onFailure, final Runnable onDone) {
+		as.startAssimilation(onFailure, relay, onDone);
+	}
+}
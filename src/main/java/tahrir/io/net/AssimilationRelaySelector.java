@@ -0,0 +1,109 @@
+package tahrir.io.net;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import tahrir.io.net.TrPeerManager.LinearStat;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.io.net.sessions.AssimilateSessionImpl;
+import tahrir.tools.TrRandom;
+
+/**
+ * Picks which peer to relay an assimilation through by Thompson sampling:
+ * for each peer we draw a plausible success rate and success time from what
+ * we've seen so far, and pick whichever peer then looks fastest. Peers are
+ * therefore picked in proportion to the probability that they really are
+ * the fastest.
+ *
+ * Nothing is allocated per peer, and recently attempted peers are looked up
+ * in constant time.
+ */
+public class AssimilationRelaySelector {
+	public static final double RECENTLY_ATTEMPTED_PENALTY = 1.3;
+
+	public static final int RECENTLY_ATTEMPTED_MEMORY = 5;
+
+	private static final double PRIOR_SUCCESS_TIME_SQRT_1 = 1000, PRIOR_SUCCESS_TIME_SQRT_2 = 2000;
+
+	private final TrPeerInfo[] recentlyAttemptedRing = new TrPeerInfo[RECENTLY_ATTEMPTED_MEMORY];
+	private int recentlyAttemptedPos = 0;
+	private final Set<TrPeerInfo> recentlyAttempted = Collections
+			.newSetFromMap(new ConcurrentHashMap<TrPeerInfo, Boolean>());
+
+	/**
+	 * @return The peer to use, or null if there are no candidates
+	 */
+	public TrPeerInfo select(final Collection<TrPeerInfo> candidates) {
+		// Our prior for the success time of peers we know little about is
+		// formed from the mean success times of every peer, plus a couple of
+		// made up samples so it is never empty
+		double count = 2, sum = PRIOR_SUCCESS_TIME_SQRT_1 + PRIOR_SUCCESS_TIME_SQRT_2, sqSum = PRIOR_SUCCESS_TIME_SQRT_1
+				* PRIOR_SUCCESS_TIME_SQRT_1 + PRIOR_SUCCESS_TIME_SQRT_2 * PRIOR_SUCCESS_TIME_SQRT_2;
+		for (final TrPeerInfo ifo : candidates) {
+			final LinearStat s = ifo.assimilation.successTimeSqrt;
+			if (s.getTotal() > 0) {
+				final double mean = s.mean();
+				count++;
+				sum += mean;
+				sqSum += mean * mean;
+			}
+		}
+		final double globalMean = sum / count;
+		final double globalSd = Math.sqrt(Math.max(0, sqSum / count - globalMean * globalMean));
+
+		final Random r = TrRandom.ids();
+		TrPeerInfo bestPeer = null;
+		double bestTimeEstimate = Double.MAX_VALUE;
+		for (final TrPeerInfo ifo : candidates) {
+			final double guessFailureProb = 1 - ifo.assimilation.successRate.getBetaRandom();
+			final double guessSuccessTimeSqrt;
+			// If we don't have at least 2 samples, use our global success time
+			if (ifo.assimilation.successTimeSqrt.getTotal() > 2) {
+				guessSuccessTimeSqrt = ifo.assimilation.successTimeSqrt.getNormalRandom();
+			} else {
+				guessSuccessTimeSqrt = r.nextGaussian() * globalSd + globalMean;
+			}
+			double timeEstimate = guessSuccessTimeSqrt * guessSuccessTimeSqrt
+					+ AssimilateSessionImpl.RELAY_ASSIMILATION_TIMEOUT_SECONDS * 1000l * guessFailureProb;
+
+			// Slow or lossy connections make everything slower, including
+			// assimilation
+			timeEstimate /= ifo.health.getScore();
+
+			if (recentlyAttempted.contains(ifo)) {
+				timeEstimate *= RECENTLY_ATTEMPTED_PENALTY;
+			}
+
+			if (timeEstimate < bestTimeEstimate) {
+				bestPeer = ifo;
+				bestTimeEstimate = timeEstimate;
+			}
+		}
+		if (bestPeer != null) {
+			attempted(bestPeer);
+		}
+		return bestPeer;
+	}
+
+	public boolean wasRecentlyAttempted(final TrPeerInfo peer) {
+		return recentlyAttempted.contains(peer);
+	}
+
+	private synchronized void attempted(final TrPeerInfo peer) {
+		final TrPeerInfo evicted = recentlyAttemptedRing[recentlyAttemptedPos];
+		recentlyAttemptedRing[recentlyAttemptedPos] = peer;
+		recentlyAttemptedPos = (recentlyAttemptedPos + 1) % recentlyAttemptedRing.length;
+		if (evicted != null && evicted != peer && !isInRing(evicted)) {
+			recentlyAttempted.remove(evicted);
+		}
+		recentlyAttempted.add(peer);
+	}
+
+	private boolean isInRing(final TrPeerInfo peer) {
+		for (final TrPeerInfo p : recentlyAttemptedRing) {
+			if (p == peer)
+				return true;
+		}
+		return false;
+	}
+}
@@ -0,0 +1,37 @@
+package tahrir.io.net;
+
+import java.util.List;
+
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+
+/**
+ * Evicts whichever of the few least recently used peers has the worst
+ * {@link PeerHealth}, so that a slow or lossy peer goes before a healthy
+ * one which happens to have been used slightly less recently.
+ */
+public class HealthAwareEvictionPolicy extends LruEvictionPolicy {
+	public static final int CANDIDATES = 3;
+
+	@Override
+	public PhysicalNetworkLocation selectVictim() {
+		return selectVictim(Predicates.<TrPeerInfo> alwaysTrue());
+	}
+
+	@Override
+	public PhysicalNetworkLocation selectVictim(final Predicate<TrPeerInfo> eligible) {
+		final List<TrPeerInfo> candidates = getLeastRecentlyUsed(eligible, CANDIDATES);
+		TrPeerInfo victim = null;
+		double worstScore = Double.MAX_VALUE;
+		for (final TrPeerInfo candidate : candidates) {
+			final double score = candidate.health.getScore();
+			if (score < worstScore) {
+				victim = candidate;
+				worstScore = score;
+			}
+		}
+		return victim == null ? null : victim.remoteNodeAddress.physicalLocation;
+	}
+}
@@ -0,0 +1,60 @@
+package tahrir.io.net;
+
+import java.util.*;
+
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Evicts the peer which was used least recently. Peers are kept in an
+ * access-ordered linked map, so every operation is constant time.
+ */
+public class LruEvictionPolicy implements PeerEvictionPolicy {
+
+	private final LinkedHashMap<PhysicalNetworkLocation, TrPeerInfo> byLastUse = new LinkedHashMap<PhysicalNetworkLocation, TrPeerInfo>(
+			16, 0.75f, true);
+
+	public synchronized void added(final TrPeerInfo peer) {
+		byLastUse.put(peer.remoteNodeAddress.physicalLocation, peer);
+	}
+
+	public synchronized void used(final TrPeerInfo peer) {
+		// With access ordering a get is enough to move it to the back
+		byLastUse.get(peer.remoteNodeAddress.physicalLocation);
+	}
+
+	public synchronized void removed(final PhysicalNetworkLocation address) {
+		byLastUse.remove(address);
+	}
+
+	public synchronized PhysicalNetworkLocation selectVictim() {
+		final Iterator<PhysicalNetworkLocation> it = byLastUse.keySet().iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	/**
+	 * Constant time unless the least recently used peers are mostly
+	 * ineligible
+	 */
+	public PhysicalNetworkLocation selectVictim(final Predicate<TrPeerInfo> eligible) {
+		final List<TrPeerInfo> leastRecentlyUsed = getLeastRecentlyUsed(eligible, 1);
+		return leastRecentlyUsed.isEmpty() ? null : leastRecentlyUsed.get(0).remoteNodeAddress.physicalLocation;
+	}
+
+	/**
+	 * @return Up to max eligible peers, least recently used first
+	 */
+	protected synchronized List<TrPeerInfo> getLeastRecentlyUsed(final Predicate<TrPeerInfo> eligible, final int max) {
+		final List<TrPeerInfo> found = new ArrayList<TrPeerInfo>(max);
+		for (final TrPeerInfo peer : byLastUse.values()) {
+			if (found.size() == max) {
+				break;
+			}
+			if (eligible.apply(peer)) {
+				found.add(peer);
+			}
+		}
+		return found;
+	}
+}
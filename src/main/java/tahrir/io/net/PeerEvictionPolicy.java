@@ -0,0 +1,31 @@
+package tahrir.io.net;
+
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Decides which peer to drop when we need room for a new one. The peer
+ * manager tells the policy about every peer added, used and removed, so that
+ * the policy can keep whatever structure it needs to choose a victim
+ * quickly.
+ */
+public interface PeerEvictionPolicy {
+	public void added(TrPeerInfo peer);
+
+	public void used(TrPeerInfo peer);
+
+	public void removed(PhysicalNetworkLocation address);
+
+	/**
+	 * @return The peer which should be evicted, or null if there are no
+	 *         peers. The peer is not removed until {@link #removed} is called.
+	 */
+	public PhysicalNetworkLocation selectVictim();
+
+	/**
+	 * @return The peer which should be evicted out of those which are
+	 *         eligible, or null if none are
+	 */
+	public PhysicalNetworkLocation selectVictim(Predicate<TrPeerInfo> eligible);
+}
@@ -0,0 +1,134 @@
+package tahrir.io.net;
+
+import tahrir.TrConstants;
+
+/**
+ * How well the transport to a peer is working, fed by the network interface
+ * as it sends, resends and receives. Round trip times and loss are tracked
+ * as exponentially weighted moving averages so that a peer which recovers
+ * isn't held back by its past for long.
+ */
+public class PeerHealth {
+	/**
+	 * Weight given to each new sample, as used for TCP's smoothed RTT
+	 */
+	public static final double SMOOTHING = 0.125;
+
+	/**
+	 * What we assume the round trip time is until we've measured it
+	 */
+	public static final double PRIOR_RTT_MS = 200;
+
+	/**
+	 * Expected delivery time at which a peer's score is one half
+	 */
+	public static final double REFERENCE_DELIVERY_MS = 1000;
+
+	private double rttMs = PRIOR_RTT_MS;
+	private boolean rttSampled = false;
+	private double lossRate = 0;
+	private long packetsSent = 0;
+	private long retransmissions = 0;
+	private long deliveryFailures = 0;
+	private long bytesSent = 0;
+	private long bytesReceived = 0;
+
+	/**
+	 * A message was acknowledged after it had been transmitted the given
+	 * number of times. Following Karn's algorithm, the round trip time is
+	 * only sampled if it wasn't retransmitted, as otherwise we can't tell
+	 * which transmission was acknowledged.
+	 */
+	public synchronized void acknowledged(final int transmissions, final long sinceFirstSentMs) {
+		for (int x = 1; x < transmissions; x++) {
+			sampleLoss(true);
+		}
+		sampleLoss(false);
+		if (transmissions == 1) {
+			if (rttSampled) {
+				rttMs += SMOOTHING * (sinceFirstSentMs - rttMs);
+			} else {
+				rttMs = sinceFirstSentMs;
+				rttSampled = true;
+			}
+		}
+	}
+
+	public synchronized void sent(final int bytes, final boolean retransmission) {
+		packetsSent++;
+		bytesSent += bytes;
+		if (retransmission) {
+			retransmissions++;
+		}
+	}
+
+	/**
+	 * We gave up on a message after transmitting it the given number of times
+	 */
+	public synchronized void deliveryFailed(final int transmissions) {
+		deliveryFailures++;
+		for (int x = 0; x < transmissions; x++) {
+			sampleLoss(true);
+		}
+	}
+
+	public synchronized void received(final int bytes) {
+		bytesReceived += bytes;
+	}
+
+	public synchronized double getRttMs() {
+		return rttMs;
+	}
+
+	public synchronized double getLossRate() {
+		return lossRate;
+	}
+
+	public synchronized long getPacketsSent() {
+		return packetsSent;
+	}
+
+	public synchronized long getRetransmissions() {
+		return retransmissions;
+	}
+
+	public synchronized long getDeliveryFailures() {
+		return deliveryFailures;
+	}
+
+	public synchronized long getBytesSent() {
+		return bytesSent;
+	}
+
+	public synchronized long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * How long we expect it to take for a message to be acknowledged,
+	 * allowing for the resends needed at the current loss rate
+	 */
+	public synchronized double getExpectedDeliveryMs() {
+		final double loss = Math.min(lossRate, 0.99);
+		return rttMs + loss / (1 - loss) * TrConstants.UDP_RESEND_INTERVAL_SECONDS * 1000;
+	}
+
+	/**
+	 * @return Between 0 and 1, higher being healthier. A peer we know
+	 *         nothing about scores as if its round trip time were
+	 *         {@link #PRIOR_RTT_MS} with no loss.
+	 */
+	public double getScore() {
+		return 1 / (1 + getExpectedDeliveryMs() / REFERENCE_DELIVERY_MS);
+	}
+
+	private void sampleLoss(final boolean lost) {
+		lossRate += SMOOTHING * ((lost ? 1 : 0) - lossRate);
+	}
+
+	@Override
+	public String toString() {
+		return "PeerHealth [rttMs=" + (int) getRttMs() + ", lossRate=" + getLossRate() + ", deliveryFailures="
+				+ getDeliveryFailures() + "]";
+	}
+}
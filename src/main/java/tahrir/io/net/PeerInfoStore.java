@@ -0,0 +1,295 @@
+package tahrir.io.net;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+
+import org.slf4j.*;
+
+import tahrir.TrConstants;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.io.serialization.TrSerializer;
+import tahrir.tools.*;
+import tahrir.tools.ByteArraySegment.ByteArraySegmentBuilder;
+
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Striped;
+
+/**
+ * Persistent information about public peers, held in memory and written
+ * back to the {@link SeedPeerCatalogue} in periodic batches rather than on
+ * every change.
+ *
+ * Every change is also appended to a journal, which is replayed on startup so
+ * that changes which hadn't been flushed when we stopped aren't lost. The
+ * journal is buffered and only pushed to the OS every
+ * {@link TrConstants#PEER_INFO_JOURNAL_FLUSH_SECONDS}, and is started afresh
+ * each time we flush.
+ *
+ * Only records changed since the last flush are held in memory, so no more
+ * than {@link TrConstants#PEER_INFO_MAX_DIRTY} are before we flush early.
+ */
+public class PeerInfoStore {
+	private static final Logger logger = LoggerFactory.getLogger(PeerInfoStore.class);
+
+	private final SeedPeerCatalogue catalogue;
+
+	private final File journalFile;
+
+	private final File oldJournalFile;
+
+	private final ConcurrentMap<PhysicalNetworkLocation, TrPeerInfo> records = new ConcurrentHashMap<PhysicalNetworkLocation, TrPeerInfo>();
+
+	private final Set<PhysicalNetworkLocation> dirty = Collections
+			.newSetFromMap(new ConcurrentHashMap<PhysicalNetworkLocation, Boolean>());
+
+	private final Striped<Lock> locks = Striped.lock(TrConstants.PEER_INFO_STORE_LOCK_STRIPES);
+
+	private final Object journalLock = new Object();
+
+	private DataOutputStream journal;
+
+	/**
+	 * @param catalogueFile Where peers' information is stored
+	 * @param journalFile Where changes are journaled between flushes
+	 */
+	public PeerInfoStore(final File catalogueFile, final File journalFile) {
+		catalogue = new SeedPeerCatalogue(catalogueFile);
+		this.journalFile = journalFile;
+		oldJournalFile = new File(journalFile.getPath() + ".old");
+		// If we stopped part way through a flush the old journal may have
+		// changes which never made it to disk
+		replayJournal(oldJournalFile);
+		replayJournal(journalFile);
+		flush();
+	}
+
+	/**
+	 * Start flushing changes to disk periodically
+	 */
+	public void scheduleFlushes() {
+		TrUtils.executor.scheduleWithFixedDelay(new Runnable() {
+
+			public void run() {
+				try {
+					flush();
+				} catch (final Exception e) {
+					logger.error("Error flushing peer info", e);
+				}
+			}
+		}, TrConstants.PEER_INFO_FLUSH_SECONDS, TrConstants.PEER_INFO_FLUSH_SECONDS, TimeUnit.SECONDS);
+		TrUtils.executor.scheduleWithFixedDelay(new Runnable() {
+
+			public void run() {
+				flushJournal();
+			}
+		}, TrConstants.PEER_INFO_JOURNAL_FLUSH_SECONDS, TrConstants.PEER_INFO_JOURNAL_FLUSH_SECONDS, TimeUnit.SECONDS);
+	}
+
+	public boolean contains(final PhysicalNetworkLocation addr) {
+		return records.containsKey(addr) || catalogue.contains(addr);
+	}
+
+	/**
+	 * @return What we know about the peer, or null if we know nothing
+	 */
+	public TrPeerInfo get(final PhysicalNetworkLocation addr) {
+		final TrPeerInfo inMemory = records.get(addr);
+		return inMemory != null ? inMemory : catalogue.get(addr);
+	}
+
+	/**
+	 * @return A peer picked at random from those not excluded, or null if
+	 *         there are none
+	 */
+	public TrPeerInfo sample(final Set<PhysicalNetworkLocation> exclude) {
+		final PhysicalNetworkLocation addr = catalogue.sample(TrRandom.ids(), exclude);
+		return addr == null ? null : get(addr);
+	}
+
+	/**
+	 * Import peers from a directory of files, one per peer, as public peers
+	 * used to be stored and as they may still be handed to us
+	 */
+	public int importFiles(final File dir) {
+		return catalogue.importFiles(dir);
+	}
+
+	/**
+	 * Modify the information about a peer, returning false if we don't have
+	 * any information about it. The change will be journaled straight away
+	 * and written back to the catalogue at the next flush.
+	 */
+	public boolean modify(final PhysicalNetworkLocation addr, final Function<TrPeerInfo, Void> updateFunction) {
+		final Lock lock = locks.get(addr);
+		lock.lock();
+		try {
+			TrPeerInfo record = records.get(addr);
+			if (record == null) {
+				record = catalogue.get(addr);
+				if (record == null)
+					return false;
+				records.put(addr, record);
+			}
+			updateFunction.apply(record);
+			dirty.add(addr);
+			appendToJournal(record);
+		} finally {
+			lock.unlock();
+		}
+		if (dirty.size() >= TrConstants.PEER_INFO_MAX_DIRTY) {
+			TrUtils.executor.execute(new Runnable() {
+
+				public void run() {
+					try {
+						flush();
+					} catch (final Exception e) {
+						logger.error("Error flushing peer info", e);
+					}
+				}
+			});
+		}
+		return true;
+	}
+
+	/**
+	 * Write every changed record to the catalogue in one go and start a new
+	 * journal
+	 */
+	public synchronized void flush() {
+		if (dirty.isEmpty())
+			return;
+		synchronized (journalLock) {
+			// Anything changed from here on will go in the new journal
+			closeJournal();
+			if (journalFile.exists()) {
+				oldJournalFile.delete();
+				journalFile.renameTo(oldJournalFile);
+			}
+		}
+		final List<TrPeerInfo> toFlush = new ArrayList<TrPeerInfo>();
+		for (final PhysicalNetworkLocation addr : dirty) {
+			final Lock lock = locks.get(addr);
+			lock.lock();
+			try {
+				if (dirty.remove(addr)) {
+					// Copied so that later changes can't tear the write
+					toFlush.add(copy(records.get(addr)));
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		catalogue.putAll(toFlush);
+		catalogue.compactIfWorthwhile();
+		oldJournalFile.delete();
+		// The catalogue has them now, so unless they've changed again since
+		// there's no need to keep them in memory
+		for (final TrPeerInfo flushed : toFlush) {
+			final PhysicalNetworkLocation addr = flushed.remoteNodeAddress.physicalLocation;
+			final Lock lock = locks.get(addr);
+			lock.lock();
+			try {
+				if (!dirty.contains(addr)) {
+					records.remove(addr);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		logger.debug("Flushed {} peer info records", toFlush.size());
+	}
+
+	private static ByteArraySegment serialize(final TrPeerInfo record) {
+		try {
+			final ByteArraySegmentBuilder builder = ByteArraySegment.builder();
+			TrSerializer.serializeTo(record, builder);
+			return builder.build();
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private static TrPeerInfo copy(final TrPeerInfo record) {
+		try {
+			return TrSerializer.deserializeFrom(TrPeerInfo.class, serialize(record).toDataInputStream());
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void appendToJournal(final TrPeerInfo record) {
+		try {
+			final ByteArraySegment entry = serialize(record);
+			synchronized (journalLock) {
+				if (journal == null) {
+					journal = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)));
+				}
+				journal.writeInt(entry.length);
+				journal.write(entry.array, entry.offset, entry.length);
+			}
+		} catch (final Exception e) {
+			logger.error("Failed to journal peer info for " + record, e);
+		}
+	}
+
+	/**
+	 * Push what has been journaled so far to the OS, which is as far as it
+	 * needs to go to survive us crashing
+	 */
+	void flushJournal() {
+		synchronized (journalLock) {
+			if (journal == null)
+				return;
+			try {
+				journal.flush();
+			} catch (final IOException e) {
+				logger.error("Failed to flush peer info journal", e);
+			}
+		}
+	}
+
+	private void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (final IOException e) {
+				logger.warn("Error closing peer info journal", e);
+			}
+			journal = null;
+		}
+	}
+
+	private void replayJournal(final File file) {
+		if (!file.exists())
+			return;
+		int replayed = 0;
+		try {
+			final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				while (true) {
+					final int length;
+					try {
+						length = dis.readInt();
+					} catch (final EOFException e) {
+						break;
+					}
+					final byte[] entry = new byte[length];
+					dis.readFully(entry);
+					final TrPeerInfo record = TrSerializer.deserializeFrom(TrPeerInfo.class, new DataInputStream(
+							new ByteArrayInputStream(entry)));
+					records.put(record.remoteNodeAddress.physicalLocation, record);
+					dirty.add(record.remoteNodeAddress.physicalLocation);
+					replayed++;
+				}
+			} finally {
+				dis.close();
+			}
+		} catch (final Exception e) {
+			// Most likely the last entry was only partly written
+			logger.warn("Stopped replaying peer info journal " + file + " after " + replayed + " entries", e);
+		}
+		logger.debug("Replayed {} peer info changes from {}", replayed, file);
+	}
+}
@@ -0,0 +1,163 @@
+package tahrir.io.net;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import tahrir.io.net.TrPeerManager.Capabilities;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+
+import com.google.common.collect.MapMaker;
+
+/**
+ * Our peers, indexed by address, by topology location, and by the
+ * capabilities callers most often select on, so that nobody needs to scan
+ * every peer to find the ones they want.
+ *
+ * The capability indexes are copy-on-write: peers come and go rarely
+ * compared with how often we read them, and iterating over an index sees a
+ * snapshot which peers added later won't be appended to.
+ */
+public class PeerTable {
+	private final Map<PhysicalNetworkLocation, TrPeerInfo> peers = new MapMaker().makeMap();
+
+	private final Map<PhysicalNetworkLocation, TrPeerInfo> readOnlyPeers = Collections.unmodifiableMap(peers);
+
+	private final TopologyRing ring = new TopologyRing();
+
+	private final Set<TrPeerInfo> broadcastReceivers = new CopyOnWriteArraySet<TrPeerInfo>();
+
+	private final Set<TrPeerInfo> assimilationRelays = new CopyOnWriteArraySet<TrPeerInfo>();
+
+	private final List<Runnable> broadcastReceiverListeners = new CopyOnWriteArrayList<Runnable>();
+
+	/**
+	 * @param listener Run whenever a peer starts receiving broadcasts, either
+	 *        because it is new or because its capabilities changed
+	 */
+	public void registerBroadcastReceiverListener(final Runnable listener) {
+		broadcastReceiverListeners.add(listener);
+	}
+
+	public synchronized void put(final TrPeerInfo peer) {
+		final TrPeerInfo old = peers.put(peer.remoteNodeAddress.physicalLocation, peer);
+		final boolean wasReceiver = old != null && broadcastReceivers.contains(old);
+		if (old != null) {
+			unindex(old);
+		}
+		ring.add(peer);
+		index(peer);
+		notifyIfNowReceiver(wasReceiver, peer);
+	}
+
+	/**
+	 * @return The peer removed, or null if we didn't have it
+	 */
+	public synchronized TrPeerInfo remove(final PhysicalNetworkLocation address) {
+		final TrPeerInfo old = peers.remove(address);
+		if (old != null) {
+			ring.remove(address);
+			unindex(old);
+		}
+		return old;
+	}
+
+	/**
+	 * Must be called after changing a peer's capabilities so that it is
+	 * moved to the right indexes
+	 */
+	public synchronized void capabilitiesChanged(final TrPeerInfo peer) {
+		if (peers.get(peer.remoteNodeAddress.physicalLocation) == peer) {
+			final boolean wasReceiver = broadcastReceivers.contains(peer);
+			unindex(peer);
+			index(peer);
+			notifyIfNowReceiver(wasReceiver, peer);
+		}
+	}
+
+	public TrPeerInfo get(final PhysicalNetworkLocation address) {
+		return peers.get(address);
+	}
+
+	public boolean contains(final PhysicalNetworkLocation address) {
+		return peers.containsKey(address);
+	}
+
+	public int size() {
+		return peers.size();
+	}
+
+	public boolean isEmpty() {
+		return peers.isEmpty();
+	}
+
+	/**
+	 * @return A read-only live view of every peer
+	 */
+	public Map<PhysicalNetworkLocation, TrPeerInfo> asMap() {
+		return readOnlyPeers;
+	}
+
+	/**
+	 * @return The peers which want microblog broadcasts. Iteration is over
+	 *         a snapshot.
+	 */
+	public Collection<TrPeerInfo> getBroadcastReceivers() {
+		return Collections.unmodifiableSet(broadcastReceivers);
+	}
+
+	/**
+	 * @return The peers which allow assimilation. Iteration is over a
+	 *         snapshot.
+	 */
+	public Collection<TrPeerInfo> getAssimilationRelays() {
+		return Collections.unmodifiableSet(assimilationRelays);
+	}
+
+	/**
+	 * @return The peer closest to the location, or null if we have no peers
+	 */
+	public TrPeerInfo getClosest(final int location) {
+		return ring.getClosest(location);
+	}
+
+	/**
+	 * @return Up to k peers, closest to the location first
+	 */
+	public List<TrPeerInfo> getNearest(final int location, final int k) {
+		return ring.getNearest(location, k);
+	}
+
+	/**
+	 * @return Peers with locations between from and to inclusive, wrapping
+	 *         around the ring if to is less than from
+	 */
+	public List<TrPeerInfo> getRange(final int from, final int to) {
+		return ring.getRange(from, to);
+	}
+
+	private void index(final TrPeerInfo peer) {
+		final Capabilities capabilities = peer.capabilities;
+		if (capabilities == null)
+			return;
+		if (capabilities.receivesMessageBroadcasts) {
+			broadcastReceivers.add(peer);
+		}
+		if (capabilities.allowsAssimilation) {
+			assimilationRelays.add(peer);
+		}
+	}
+
+	private void notifyIfNowReceiver(final boolean wasReceiver, final TrPeerInfo peer) {
+		if (!wasReceiver && broadcastReceivers.contains(peer)) {
+			for (final Runnable listener : broadcastReceiverListeners) {
+				listener.run();
+			}
+		}
+	}
+
+	private void unindex(final TrPeerInfo peer) {
+		broadcastReceivers.remove(peer);
+		assimilationRelays.remove(peer);
+	}
+}
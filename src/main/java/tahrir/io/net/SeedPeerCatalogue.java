@@ -0,0 +1,300 @@
+package tahrir.io.net;
+
+import java.io.*;
+import java.util.*;
+
+import org.slf4j.*;
+
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.io.serialization.TrSerializer;
+import tahrir.tools.*;
+import tahrir.tools.ByteArraySegment.ByteArraySegmentBuilder;
+
+/**
+ * Every public peer we know about, in a single append-only file rather than
+ * a file per peer. Each record holds a peer's address followed by its
+ * {@link TrPeerInfo}, and a later record for the same address supersedes an
+ * earlier one.
+ *
+ * The file isn't read until the catalogue is first used, and even then only
+ * the addresses are read to build an index of where each peer's latest
+ * record is. Records themselves are read on demand.
+ *
+ * Each record is laid out as:
+ *
+ * <pre>
+ * int recordLength, int addressLength, address, peerInfo
+ * </pre>
+ */
+public class SeedPeerCatalogue {
+	private static final Logger logger = LoggerFactory.getLogger(SeedPeerCatalogue.class);
+
+	/**
+	 * Compact once superseded records outnumber live ones by this much
+	 */
+	public static final int COMPACTION_RATIO = 2;
+
+	private final File file;
+
+	private RandomAccessFile raf;
+
+	private final Map<PhysicalNetworkLocation, Long> offsets = new HashMap<PhysicalNetworkLocation, Long>();
+
+	/**
+	 * The same addresses as in offsets, so that we can pick one at random
+	 */
+	private final List<PhysicalNetworkLocation> addresses = new ArrayList<PhysicalNetworkLocation>();
+
+	private int superseded = 0;
+
+	public SeedPeerCatalogue(final File file) {
+		this.file = file;
+	}
+
+	public synchronized boolean contains(final PhysicalNetworkLocation address) {
+		ensureLoaded();
+		return offsets.containsKey(address);
+	}
+
+	public synchronized int size() {
+		ensureLoaded();
+		return addresses.size();
+	}
+
+	/**
+	 * @return The latest information about the peer, or null if we don't
+	 *         have any
+	 */
+	public synchronized TrPeerInfo get(final PhysicalNetworkLocation address) {
+		ensureLoaded();
+		final Long offset = offsets.get(address);
+		if (offset == null)
+			return null;
+		try {
+			raf.seek(offset);
+			final byte[] record = new byte[raf.readInt()];
+			raf.readFully(record);
+			final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(record));
+			dis.skipBytes(dis.readInt());
+			return TrSerializer.deserializeFrom(TrPeerInfo.class, dis);
+		} catch (final Exception e) {
+			throw new RuntimeException("Failed to read record for " + address + " from " + file, e);
+		}
+	}
+
+	/**
+	 * @return The address of a peer picked uniformly at random from those
+	 *         not excluded, or null if there are none
+	 */
+	public synchronized PhysicalNetworkLocation sample(final Random random,
+			final Set<PhysicalNetworkLocation> exclude) {
+		ensureLoaded();
+		if (addresses.isEmpty())
+			return null;
+		final int start = random.nextInt(addresses.size());
+		for (int x = 0; x < addresses.size(); x++) {
+			final PhysicalNetworkLocation address = addresses.get((start + x) % addresses.size());
+			if (!exclude.contains(address))
+				return address;
+		}
+		return null;
+	}
+
+	public void put(final TrPeerInfo peer) {
+		putAll(Collections.singletonList(peer));
+	}
+
+	/**
+	 * Add or replace many peers with a single write
+	 */
+	public synchronized void putAll(final Collection<TrPeerInfo> peers) {
+		if (peers.isEmpty())
+			return;
+		ensureLoaded();
+		try {
+			final ByteArraySegmentBuilder builder = ByteArraySegment.builder();
+			final long start = raf.length();
+			final Map<PhysicalNetworkLocation, Long> written = new LinkedHashMap<PhysicalNetworkLocation, Long>();
+			for (final TrPeerInfo peer : peers) {
+				final PhysicalNetworkLocation address = peer.remoteNodeAddress.physicalLocation;
+				written.put(address, start + builder.size());
+				writeRecord(builder, address, peer);
+			}
+			final ByteArraySegment bytes = builder.build();
+			raf.seek(start);
+			raf.write(bytes.array, bytes.offset, bytes.length);
+			for (final Map.Entry<PhysicalNetworkLocation, Long> e : written.entrySet()) {
+				index(e.getKey(), e.getValue());
+			}
+		} catch (final Exception e) {
+			throw new RuntimeException("Failed to write to " + file, e);
+		}
+	}
+
+	/**
+	 * Copy the peer information in a directory of files, one per peer, into
+	 * the catalogue. The files are left alone, as they may be the user's own
+	 * list of seed peers, so any peer the catalogue already knows about is
+	 * skipped rather than having what we've since learnt about it replaced.
+	 *
+	 * @return The number of peers imported
+	 */
+	public int importFiles(final File dir) {
+		final File[] files = dir.listFiles();
+		if (files == null || files.length == 0)
+			return 0;
+		final Map<PhysicalNetworkLocation, TrPeerInfo> imported = new LinkedHashMap<PhysicalNetworkLocation, TrPeerInfo>();
+		for (final File f : files) {
+			if (!f.isFile() || f.equals(file)) {
+				continue;
+			}
+			try {
+				final TrPeerInfo peer = Persistence.loadReadOnly(TrPeerInfo.class, f);
+				final PhysicalNetworkLocation address = peer.remoteNodeAddress.physicalLocation;
+				if (!contains(address)) {
+					imported.put(address, peer);
+				}
+			} catch (final Exception e) {
+				logger.warn("Couldn't import peer information from " + f, e);
+			}
+		}
+		putAll(imported.values());
+		logger.debug("Imported {} new peers from {}", imported.size(), dir);
+		return imported.size();
+	}
+
+	/**
+	 * Rewrite the file without superseded records if there are enough of
+	 * them to be worth it
+	 */
+	public synchronized void compactIfWorthwhile() {
+		ensureLoaded();
+		if (superseded <= addresses.size() * COMPACTION_RATIO)
+			return;
+		final File compacted = new File(file.getPath() + ".compacting");
+		try {
+			final ByteArraySegmentBuilder builder = ByteArraySegment.builder();
+			final Map<PhysicalNetworkLocation, Long> newOffsets = new HashMap<PhysicalNetworkLocation, Long>();
+			for (final PhysicalNetworkLocation address : addresses) {
+				raf.seek(offsets.get(address));
+				final byte[] record = new byte[raf.readInt()];
+				raf.readFully(record);
+				newOffsets.put(address, (long) builder.size());
+				builder.writeInt(record.length);
+				builder.write(record);
+			}
+			final ByteArraySegment bytes = builder.build();
+			final FileOutputStream fos = new FileOutputStream(compacted);
+			try {
+				fos.write(bytes.array, bytes.offset, bytes.length);
+			} finally {
+				fos.close();
+			}
+			raf.close();
+			raf = null;
+			if (!compacted.renameTo(file)) {
+				file.delete();
+				if (!compacted.renameTo(file))
+					throw new IOException("Couldn't replace " + file + " with " + compacted);
+			}
+			raf = new RandomAccessFile(file, "rw");
+			logger.debug("Compacted {}, dropping {} superseded records", file, superseded);
+			offsets.putAll(newOffsets);
+			superseded = 0;
+		} catch (final IOException e) {
+			throw new RuntimeException("Failed to compact " + file, e);
+		}
+	}
+
+	public synchronized void close() {
+		if (raf != null) {
+			try {
+				raf.close();
+			} catch (final IOException e) {
+				logger.warn("Error closing " + file, e);
+			}
+			raf = null;
+			offsets.clear();
+			addresses.clear();
+			superseded = 0;
+		}
+	}
+
+	private static void writeRecord(final ByteArraySegmentBuilder builder, final PhysicalNetworkLocation address,
+			final TrPeerInfo peer) throws Exception {
+		final ByteArraySegmentBuilder addressBytes = ByteArraySegment.builder();
+		TrSerializer.serializeTo(address, addressBytes);
+		final ByteArraySegmentBuilder peerBytes = ByteArraySegment.builder();
+		TrSerializer.serializeTo(peer, peerBytes);
+		builder.writeInt(4 + addressBytes.size() + peerBytes.size());
+		builder.writeInt(addressBytes.size());
+		builder.write(addressBytes.build());
+		builder.write(peerBytes.build());
+	}
+
+	private void index(final PhysicalNetworkLocation address, final long offset) {
+		if (offsets.put(address, offset) == null) {
+			addresses.add(address);
+		} else {
+			superseded++;
+		}
+	}
+
+	private void ensureLoaded() {
+		if (raf != null)
+			return;
+		RandomAccessFile opened = null;
+		try {
+			opened = new RandomAccessFile(file, "rw");
+			final DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			final long length = opened.length();
+			long pos = 0;
+			try {
+				while (pos + 4 <= length) {
+					final int recordLength = dis.readInt();
+					if (pos + 4 + recordLength > length) {
+						break;
+					}
+					final int addressLength = dis.readInt();
+					final byte[] addressBytes = new byte[addressLength];
+					dis.readFully(addressBytes);
+					final PhysicalNetworkLocation address = TrSerializer.deserializeFrom(PhysicalNetworkLocation.class,
+							new DataInputStream(new ByteArrayInputStream(addressBytes)));
+					index(address, pos);
+					skipFully(dis, recordLength - 4 - addressLength);
+					pos += 4 + recordLength;
+				}
+			} finally {
+				dis.close();
+			}
+			if (pos < length) {
+				// Most likely we stopped part way through appending
+				logger.warn("Discarding {} bytes of incomplete record at the end of {}", length - pos, file);
+				opened.setLength(pos);
+			}
+			raf = opened;
+			logger.debug("Loaded index of {} peers from {}", addresses.size(), file);
+		} catch (final Exception e) {
+			if (opened != null) {
+				try {
+					opened.close();
+				} catch (final IOException e1) {
+					// We're already failing
+				}
+			}
+			offsets.clear();
+			addresses.clear();
+			superseded = 0;
+			throw new RuntimeException("Failed to load " + file, e);
+		}
+	}
+
+	private static void skipFully(final DataInputStream dis, int toSkip) throws IOException {
+		while (toSkip > 0) {
+			final int skipped = dis.skipBytes(toSkip);
+			if (skipped <= 0)
+				throw new EOFException();
+			toSkip -= skipped;
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package tahrir.io.net;
+
+import java.util.Random;
+
+import tahrir.io.net.TrPeerManager.TopologyLocationInfo;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.tools.TrRandom;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Shapes our links towards a Kleinberg small world, where the chance of
+ * linking to a peer at distance d is proportional to 1/d. That is the same
+ * as having equally many links in each distance class [2^c, 2^(c+1)), which
+ * is what lets greedy routing find any location in O(log^2 n) hops.
+ *
+ * Rather than probing uniformly random locations we probe for whichever
+ * distance class we have fewest links in, and we only swap a link for a new
+ * one if that brings our distribution closer to the target.
+ */
+public class TopologyOptimizer {
+	/**
+	 * No two locations are further apart than half way round the ring, which
+	 * is just under 2^30
+	 */
+	public static final int DISTANCE_CLASSES = 30;
+
+	private static final int MAX_DISTANCE = Integer.MAX_VALUE / 2;
+
+	private final PeerTable peerTable;
+
+	private final TopologyLocationInfo locInfo;
+
+	public TopologyOptimizer(final PeerTable peerTable, final TopologyLocationInfo locInfo) {
+		this.peerTable = peerTable;
+		this.locInfo = locInfo;
+	}
+
+	public static int distanceClass(final int distance) {
+		if (distance <= 1)
+			return 0;
+		return Math.min(DISTANCE_CLASSES - 1, 31 - Integer.numberOfLeadingZeros(distance));
+	}
+
+	/**
+	 * @return How many of our peers are in each distance class
+	 */
+	public int[] getDistribution() {
+		final int[] counts = new int[DISTANCE_CLASSES];
+		final int location = locInfo.getLocation();
+		for (final TrPeerInfo peer : peerTable.asMap().values()) {
+			counts[distanceClass(TopologyRing.distance(peer.topologyLocation, location))]++;
+		}
+		return counts;
+	}
+
+	/**
+	 * @return A location to probe for, picked from the distance class we are
+	 *         most short of links in
+	 */
+	public int chooseProbeLocation() {
+		final Random r = TrRandom.ids();
+		final int[] counts = getDistribution();
+		// There are unlikely to be any nodes closer to us than our nearest
+		// neighbour, so don't waste probes looking for them
+		int lowestClass = 0;
+		while (lowestClass < DISTANCE_CLASSES - 1 && counts[lowestClass] == 0) {
+			lowestClass++;
+		}
+		if (peerTable.isEmpty()) {
+			lowestClass = 0;
+		}
+		int chosenClass = -1;
+		int fewest = Integer.MAX_VALUE, ties = 0;
+		for (int c = lowestClass; c < DISTANCE_CLASSES; c++) {
+			if (counts[c] < fewest) {
+				fewest = counts[c];
+				chosenClass = c;
+				ties = 1;
+			} else if (counts[c] == fewest && r.nextInt(++ties) == 0) {
+				// Reservoir sample so every tied class is equally likely
+				chosenClass = c;
+			}
+		}
+		final long classStart = 1l << chosenClass;
+		final long distance = Math.min(MAX_DISTANCE, classStart + (long) (r.nextDouble() * classStart));
+		return offset(locInfo.getLocation(), r.nextBoolean() ? distance : -distance);
+	}
+
+	/**
+	 * Which of our peers could be swapped for a new peer at newLocation so
+	 * that our distribution gets closer to the target. Moving a link from
+	 * class a to class b only does that if a has at least two more links than
+	 * b.
+	 *
+	 * @return The peers which could be replaced, or null if none could
+	 */
+	public Predicate<TrPeerInfo> getImprovingReplacements(final int newLocation) {
+		final int location = locInfo.getLocation();
+		final int[] counts = getDistribution();
+		final int newCount = counts[distanceClass(TopologyRing.distance(newLocation, location))];
+		boolean any = false;
+		for (final int count : counts) {
+			if (count > newCount + 1) {
+				any = true;
+				break;
+			}
+		}
+		if (!any)
+			return null;
+		return new Predicate<TrPeerInfo>() {
+
+			public boolean apply(final TrPeerInfo peer) {
+				return counts[distanceClass(TopologyRing.distance(peer.topologyLocation, location))] > newCount + 1;
+			}
+		};
+	}
+
+	private static int offset(final int location, final long by) {
+		final long ringSize = Integer.MAX_VALUE;
+		long result = (location + by) % ringSize;
+		if (result < 0) {
+			result += ringSize;
+		}
+		return (int) result;
+	}
+}
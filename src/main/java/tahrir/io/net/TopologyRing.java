@@ -0,0 +1,186 @@
+package tahrir.io.net;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Keeps peers sorted by topology location so that the closest peers to any
+ * point on the ring (locations run from 0 to Integer.MAX_VALUE and then wrap
+ * around) can be found in O(log n) rather than by scanning every peer.
+ *
+ * Several peers may share a location, so each peer is given a sequence
+ * number to break ties.
+ */
+public class TopologyRing {
+	private final ConcurrentSkipListSet<RingEntry> ring = new ConcurrentSkipListSet<RingEntry>();
+
+	private final ConcurrentMap<PhysicalNetworkLocation, RingEntry> entries = new ConcurrentHashMap<PhysicalNetworkLocation, RingEntry>();
+
+	private final AtomicLong nextSequence = new AtomicLong(0);
+
+	/**
+	 * The distance between two locations going whichever way round the ring
+	 * is shorter.
+	 */
+	public static int distance(final int point1, final int point2) {
+		final int d1 = Math.abs(point1 - point2);
+		final int d2 = Integer.MAX_VALUE - Math.max(point1, point2) + Math.min(point1, point2);
+		return Math.min(d1, d2);
+	}
+
+	public synchronized void add(final TrPeerInfo peer) {
+		final PhysicalNetworkLocation address = peer.remoteNodeAddress.physicalLocation;
+		final RingEntry entry = new RingEntry(peer.topologyLocation, nextSequence.getAndIncrement(), peer);
+		final RingEntry old = entries.put(address, entry);
+		if (old != null) {
+			ring.remove(old);
+		}
+		ring.add(entry);
+	}
+
+	public synchronized void remove(final PhysicalNetworkLocation address) {
+		final RingEntry old = entries.remove(address);
+		if (old != null) {
+			ring.remove(old);
+		}
+	}
+
+	public int size() {
+		return ring.size();
+	}
+
+	/**
+	 * @return The peer closest to the location, or null if there are no peers
+	 */
+	public TrPeerInfo getClosest(final int location) {
+		final RingEntry probe = RingEntry.probe(location);
+		RingEntry above = ring.ceiling(probe);
+		RingEntry below = ring.lower(probe);
+		if (above == null && below == null)
+			return null;
+		// Wrap around the ends of the ring
+		if (above == null) {
+			above = ring.first();
+		}
+		if (below == null) {
+			below = ring.last();
+		}
+		return distance((int) above.location, location) <= distance((int) below.location, location) ? above.peer : below.peer;
+	}
+
+	/**
+	 * @return Up to k peers, closest to the location first
+	 */
+	public List<TrPeerInfo> getNearest(final int location, final int k) {
+		final RingEntry probe = RingEntry.probe(location);
+		final List<TrPeerInfo> nearest = Lists.newArrayListWithCapacity(k);
+		// Walk outwards in both directions, wrapping around, taking whichever
+		// side is closer each time
+		final Iterator<RingEntry> up = new WrappingIterator(ring.tailSet(probe, true), ring.headSet(probe, false));
+		final Iterator<RingEntry> down = new WrappingIterator(ring.headSet(probe, false).descendingSet(), ring.tailSet(
+				probe, true).descendingSet());
+		final Set<RingEntry> taken = new HashSet<RingEntry>();
+		RingEntry nextUp = up.hasNext() ? up.next() : null;
+		RingEntry nextDown = down.hasNext() ? down.next() : null;
+		while (nearest.size() < k && (nextUp != null || nextDown != null)) {
+			final boolean takeUp = nextDown == null
+					|| (nextUp != null && distance((int) nextUp.location, location) <= distance((int) nextDown.location,
+							location));
+			final RingEntry next = takeUp ? nextUp : nextDown;
+			if (takeUp) {
+				nextUp = up.hasNext() ? up.next() : null;
+			} else {
+				nextDown = down.hasNext() ? down.next() : null;
+			}
+			// Both directions eventually reach every entry
+			if (taken.add(next)) {
+				nearest.add(next.peer);
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return Every peer with a location between from and to inclusive, going
+	 *         up from from, wrapping around if to is less than from
+	 */
+	public List<TrPeerInfo> getRange(final int from, final int to) {
+		final List<TrPeerInfo> inRange = Lists.newArrayList();
+		if (from <= to) {
+			addAll(ring.subSet(RingEntry.probe(from), true, RingEntry.probe(to + 1L), false), inRange);
+		} else {
+			addAll(ring.tailSet(RingEntry.probe(from), true), inRange);
+			addAll(ring.headSet(RingEntry.probe(to + 1L), false), inRange);
+		}
+		return inRange;
+	}
+
+	private static void addAll(final Set<RingEntry> entries, final List<TrPeerInfo> to) {
+		for (final RingEntry e : entries) {
+			to.add(e.peer);
+		}
+	}
+
+	private static class RingEntry implements Comparable<RingEntry> {
+		// Held as a long so probes can sit just past Integer.MAX_VALUE
+		private final long location;
+		private final long sequence;
+		private final TrPeerInfo peer;
+
+		public RingEntry(final long location, final long sequence, final TrPeerInfo peer) {
+			this.location = location;
+			this.sequence = sequence;
+			this.peer = peer;
+		}
+
+		/**
+		 * An entry which sorts before every real entry at the location
+		 */
+		public static RingEntry probe(final long location) {
+			return new RingEntry(location, Long.MIN_VALUE, null);
+		}
+
+		public int compareTo(final RingEntry other) {
+			if (location != other.location)
+				return location < other.location ? -1 : 1;
+			if (sequence != other.sequence)
+				return sequence < other.sequence ? -1 : 1;
+			return 0;
+		}
+	}
+
+	/**
+	 * Iterates over one set and then carries on into another
+	 */
+	private static class WrappingIterator implements Iterator<RingEntry> {
+		private Iterator<RingEntry> current;
+		private final Iterator<RingEntry> then;
+
+		public WrappingIterator(final Set<RingEntry> first, final Set<RingEntry> then) {
+			current = first.iterator();
+			this.then = then.iterator();
+		}
+
+		public boolean hasNext() {
+			if (!current.hasNext()) {
+				current = then;
+			}
+			return current.hasNext();
+		}
+
+		public RingEntry next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			return current.next();
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -1,41 +1,50 @@
 package tahrir.io.net;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.commons.math.MathException;
-import org.apache.commons.math.distribution.BetaDistributionImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import tahrir.TrConstants;
 import tahrir.TrNode;
 import tahrir.io.net.TrPeerManager.TrPeerInfo.Assimilation;
-import tahrir.io.net.sessions.AssimilateSessionImpl;
 import tahrir.io.net.sessions.TopologyMaintenanceSessionImpl;
-import tahrir.tools.Persistence;
-import tahrir.tools.Persistence.Modified;
+import tahrir.tools.TrRandom;
 import tahrir.tools.TrUtils;
 
 import com.google.common.base.Function;
-import com.google.common.collect.MapMaker;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Collections2;
 
 public class TrPeerManager {
-	public static final double RECENTLY_ATTEMPTED_PENALTY = 1.3;
-
 	static Logger logger = LoggerFactory.getLogger(TrPeerManager.class);
 	public final Config config;
 
-	public ConcurrentLinkedQueue<TrPeerInfo> lastAttemptedRelays = new ConcurrentLinkedQueue<TrPeerInfo>();
+	public final AssimilationRelaySelector relaySelector = new AssimilationRelaySelector();
+
+	public final PeerTable peerTable = new PeerTable();
+
+	/**
+	 * A read-only view of {@link #peerTable}
+	 */
+	public final Map<PhysicalNetworkLocation, TrPeerInfo> peers = peerTable.asMap();
+
+	private volatile PeerEvictionPolicy evictionPolicy = new HealthAwareEvictionPolicy();
+
+	public final PeerInfoStore peerInfoStore;
 
-	public Map<PhysicalNetworkLocation, TrPeerInfo> peers = new MapMaker().makeMap();
+	public final AssimilationController assimilationController;
 	public final String sessionMgrLabel;
 
 	public final TopologyLocationInfo locInfo;
+
+	public final TopologyOptimizer topologyOptimizer;
 	public boolean hasForwardedRecenlty = false;
 
 	private final TrNode node;
@@ -45,6 +54,14 @@ public class TrPeerManager {
 		this.node = node;
 		sessionMgrLabel = "TrPeerManager(" + TrUtils.rand.nextInt() + ")";
 		locInfo = new TopologyLocationInfo(this);
+		topologyOptimizer = new TopologyOptimizer(peerTable, locInfo);
+		peerInfoStore = new PeerInfoStore(new File(node.rootDirectory, TrConstants.SEED_PEER_CATALOGUE), new File(
+				node.rootDirectory, TrConstants.PEER_INFO_JOURNAL));
+		// Anything left in the old one file per peer layout, or dropped in
+		// there since, is moved into the catalogue
+		peerInfoStore.importFiles(node.publicNodeIdsDir);
+		peerInfoStore.scheduleFlushes();
+		assimilationController = new AssimilationController(node, this);
 		if (config.runMaintainance ) {
 			TrUtils.executor.scheduleAtFixedRate(new Runnable() {
 
@@ -75,101 +92,110 @@ public class TrPeerManager {
 		final TrPeerInfo tpi = new TrPeerInfo(pubNodeAddress);
 		tpi.capabilities = capabilities;
 		tpi.topologyLocation = topologyLocation;
-		peers.put(pubNodeAddress.physicalLocation, tpi);
-		node.sessionMgr.connectionManager.getConnection(pubNodeAddress, false, sessionMgrLabel, new Runnable() {
+		putPeer(tpi);
+		final TrRemoteConnection connection = node.sessionMgr.connectionManager.getConnection(pubNodeAddress, false,
+				sessionMgrLabel, new Runnable() {
 
 			public void run() {
-				peers.remove(pubNodeAddress.physicalLocation);
+				removePeer(pubNodeAddress.physicalLocation);
 			}
 		});
+		tpi.health = connection.getHealth();
 	}
 
-	public void addByReplacement(final RemoteNodeAddress pubNodeAddress, final Capabilities capabilities, final int topologyLocation) {
+	/**
+	 * @return Whether the peer was added
+	 */
+	public boolean addByReplacement(final RemoteNodeAddress pubNodeAddress, final Capabilities capabilities, final int topologyLocation) {
 		if (peers.size() < config.maxPeers) {
 			// just add it regularly
 			addNewPeer(pubNodeAddress, capabilities, topologyLocation);
 		} else {
-			// add it by replacement removing LRU peer
-			final PhysicalNetworkLocation toRemove = getLeastRecentlyUsedPeer();
+			// add it by replacement, but only if that improves our link
+			// distribution
+			final PhysicalNetworkLocation toRemove = selectReplacementVictim(topologyLocation);
+			if (toRemove == null) {
+				logger.debug("Not replacing a peer with {} as it wouldn't improve our topology", pubNodeAddress);
+				return false;
+			}
 			node.sessionMgr.connectionManager.noLongerNeeded(toRemove, "topology");
-			peers.remove(toRemove);
+			removePeer(toRemove);
 			addNewPeer(pubNodeAddress, capabilities, topologyLocation);
 		}
+		return true;
+	}
+
+	/**
+	 * @return Whether {@link #addByReplacement} would add a peer at this
+	 *         location as things stand. Nothing is changed.
+	 */
+	public boolean wouldAddByReplacement(final int topologyLocation) {
+		return peers.size() < config.maxPeers || selectReplacementVictim(topologyLocation) != null;
+	}
+
+	/**
+	 * Drop a peer we've decided we don't want a link to after all
+	 */
+	public void dropPeer(final PhysicalNetworkLocation address) {
+		node.sessionMgr.connectionManager.noLongerNeeded(address, "topology");
+		removePeer(address);
+	}
+
+	/**
+	 * @return Whichever of the peers that could be replaced by one at this
+	 *         location our eviction policy picks, or null if replacing any
+	 *         of them wouldn't improve our link distribution
+	 */
+	private PhysicalNetworkLocation selectReplacementVictim(final int topologyLocation) {
+		final Predicate<TrPeerInfo> replaceable = topologyOptimizer.getImprovingReplacements(topologyLocation);
+		return replaceable == null ? null : evictionPolicy.selectVictim(replaceable);
 	}
 
 	public TrPeerInfo getPeerForAssimilation() {
-		if (peers.isEmpty()) {
-			// We need to use a public peer
-			final ArrayList<File> publicNodeIdFiles = node.getPublicNodeIdFiles();
-			final File pubPeerFile = publicNodeIdFiles.get(TrUtils.rand.nextInt(publicNodeIdFiles.size()));
-			final TrPeerInfo pnii = Persistence.loadReadOnly(TrPeerInfo.class, pubPeerFile);
-			return pnii;
-		} else {
-			/*
-			 * Here we use a trick to pick peers in proportion to the
-			 * probability that they will be the fastest peer
-			 */
-			TrPeerInfo bestPeer = null;
-			double bestTimeEstimate = Double.MAX_VALUE;
-			final LinearStat globalSuccessTime = new LinearStat(Integer.MAX_VALUE);
-			globalSuccessTime.sample(1000);
-			globalSuccessTime.sample(2000);
-			for (final TrPeerInfo ifo : peers.values()) {
-				if (ifo.assimilation.successTimeSqrt.total > 0) {
-					globalSuccessTime.sample(ifo.assimilation.successTimeSqrt.mean());
-				}
-			}
-			for (final Entry<PhysicalNetworkLocation, TrPeerInfo> e : peers.entrySet()) {
-				final double guessFailureProb = e.getValue().assimilation.successRate.getBetaRandom();
-				double guessSuccessTime;
-				// If we don't have at least 2 samples, use our global success
-				// time
-				if (e.getValue().assimilation.successTimeSqrt.total > 2) {
-					final double guessSuccessTimeSqrt = e.getValue().assimilation.successTimeSqrt.getNormalRandom();
-					guessSuccessTime = guessSuccessTimeSqrt * guessSuccessTimeSqrt;
-				} else {
-					final double guessSuccessTimeSqrt = globalSuccessTime.getNormalRandom();
-					guessSuccessTime = guessSuccessTimeSqrt * guessSuccessTimeSqrt;
-				}
-				double timeEstimate = guessSuccessTime + AssimilateSessionImpl.RELAY_ASSIMILATION_TIMEOUT_SECONDS
-						* 1000l * guessFailureProb;
+		return getPeerForAssimilation(Collections.<PhysicalNetworkLocation> emptySet());
+	}
 
-				if (lastAttemptedRelays.contains(e.getValue())) {
-					timeEstimate *= RECENTLY_ATTEMPTED_PENALTY;
-				}
+	/**
+	 * @param exclude Relays which mustn't be used, perhaps because they are
+	 *        already relaying another of our assimilations
+	 * @return A relay, or null if every candidate is excluded
+	 */
+	public TrPeerInfo getPeerForAssimilation(final Set<PhysicalNetworkLocation> exclude) {
+		if (peerTable.isEmpty()) {
+			// We need to use a public peer
+			return peerInfoStore.sample(exclude);
+		}
+		// Prefer peers which say they allow assimilation, but any peer can
+		// relay
+		Collection<TrPeerInfo> candidates = peerTable.getAssimilationRelays();
+		if (candidates.isEmpty()) {
+			candidates = peers.values();
+		}
+		if (exclude.isEmpty())
+			return relaySelector.select(candidates);
+		else
+			return relaySelector.select(Collections2.filter(candidates, new Predicate<TrPeerInfo>() {
 
-				if (timeEstimate < bestTimeEstimate) {
-					bestPeer = e.getValue();
-					bestTimeEstimate = timeEstimate;
+				public boolean apply(final TrPeerInfo input) {
+					return !exclude.contains(input.remoteNodeAddress.physicalLocation);
 				}
-			}
-			lastAttemptedRelays.add(bestPeer);
-			while (lastAttemptedRelays.size() > 5) {
-				lastAttemptedRelays.poll();
-			}
-			return bestPeer;
-		}
+			}));
 	}
 
 	public void maintainance() {
 		// Check to see whether we need new connections
-
-		// TODO: We might want to spawn multiple assimilation requests (say, up to 3)
-		// in the event that we are well below minPeers to speed this up
 		if (config.assimilate && peers.size() < config.minPeers) {
-			final AssimilateSessionImpl as = node.sessionMgr.getOrCreateLocalSession(AssimilateSessionImpl.class);
-			final TrPeerInfo ap = getPeerForAssimilation();
-
-			as.startAssimilation(TrUtils.noopRunnable, ap);
-
-			// } else {
-			// logger.warn("Don't know how to assimilate through already connected peers yet");
-			// }
-		} else if (config.topologyMaintenance) { // && !hasForwardedRecenlty) {
-			// do maintenance on topology for small world network
-			final int randomLocationToFind = Math.abs(TrUtils.rand.nextInt());
-			final TopologyMaintenanceSessionImpl tm = node.sessionMgr.getOrCreateLocalSession(TopologyMaintenanceSessionImpl.class);
-			tm.startTopologyMaintenance(randomLocationToFind);
+			assimilationController.maintain();
+		} else {
+			if (assimilationController.getInProgress() > 0) {
+				assimilationController.cancelAll();
+			}
+			if (config.topologyMaintenance) { // && !hasForwardedRecenlty) {
+				// do maintenance on topology for small world network
+				final int locationToFind = topologyOptimizer.chooseProbeLocation();
+				final TopologyMaintenanceSessionImpl tm = node.sessionMgr.getOrCreateLocalSession(TopologyMaintenanceSessionImpl.class);
+				tm.startTopologyMaintenance(locationToFind);
+			}
 		}
 	}
 
@@ -204,23 +230,45 @@ public class TrPeerManager {
 
 	public RemoteNodeAddress getClosestPeer(final int locationToFind) {
 		// closest peer is initially calling node
-		RemoteNodeAddress closestPeer = node.getRemoteNodeAddress();
-		final int callingNodeTopologyLoc = locInfo.location;
-		int closestDistance = getLinearDistanceWithRollover(callingNodeTopologyLoc, locationToFind);
+		final TrPeerInfo closestPeer = peerTable.getClosest(locationToFind);
+		if (closestPeer == null
+				|| TopologyRing.distance(closestPeer.topologyLocation, locationToFind) >= TopologyRing.distance(
+						locInfo.location, locationToFind))
+			return node.getRemoteNodeAddress();
+		return closestPeer.remoteNodeAddress;
+	}
 
-		for (final TrPeerInfo ifo : peers.values()) {
-			final int currentPeerDistance = getLinearDistanceWithRollover(ifo.topologyLocation, locationToFind);
+	/**
+	 * @return Up to k of our peers, closest to the location first
+	 */
+	public List<TrPeerInfo> getNearestPeers(final int location, final int k) {
+		return peerTable.getNearest(location, k);
+	}
 
-			if (currentPeerDistance < closestDistance) {
-				closestDistance = currentPeerDistance;
-				closestPeer  = ifo.remoteNodeAddress;
-			}
-		}
+	/**
+	 * @return Our peers with locations between from and to inclusive, wrapping
+	 *         around the ring if to is less than from
+	 */
+	public List<TrPeerInfo> getPeersInRange(final int from, final int to) {
+		return peerTable.getRange(from, to);
+	}
 
-		return closestPeer;
+	/**
+	 * Replace the policy used to pick which peer to drop when we need room
+	 * for a new one, telling it about the peers we already have
+	 */
+	public void setEvictionPolicy(final PeerEvictionPolicy evictionPolicy) {
+		for (final TrPeerInfo peer : peers.values()) {
+			evictionPolicy.added(peer);
+		}
+		this.evictionPolicy = evictionPolicy;
 	}
 
 	public void updateTimeLastUsed(final PhysicalNetworkLocation physicalLocation) {
+		final TrPeerInfo peer = peerTable.get(physicalLocation);
+		if (peer != null) {
+			evictionPolicy.used(peer);
+		}
 		updatePeerInfo(physicalLocation, new Function<TrPeerManager.TrPeerInfo, Void>() {
 
 			public Void apply(final TrPeerInfo peerInfo) {
@@ -251,33 +299,30 @@ public class TrPeerManager {
 		},5, 5, TimeUnit.SECONDS);
 	}
 
+	/**
+	 * Change the capabilities we've recorded for a peer, keeping the peer
+	 * table's indexes up to date
+	 */
+	public void updateCapabilities(final PhysicalNetworkLocation addr, final Capabilities capabilities) {
+		final TrPeerInfo peer = peerTable.get(addr);
+		if (peer != null) {
+			peer.capabilities = capabilities;
+			peerTable.capabilitiesChanged(peer);
+		}
+	}
+
 	public int getNumFreePeerSlots() {
 		return config.maxPeers - peers.size();
 	}
 
-	private int getLinearDistanceWithRollover(final int point1, final int point2) {
-		// this is a silly way of doing it but it seems to work
-		final int d1 = Math.abs(point1 - point2);
-		final int d2 = Integer.MAX_VALUE - Math.max(point1, point2) + Math.min(point1, point2);
-		return Math.min(d1, d2);
+	private void putPeer(final TrPeerInfo peer) {
+		peerTable.put(peer);
+		evictionPolicy.added(peer);
 	}
 
-	private PhysicalNetworkLocation getLeastRecentlyUsedPeer() {
-		PhysicalNetworkLocation leastRecentlyUsedPeer = null;
-		long longestTimeSinceUsed = Long.MIN_VALUE;
-
-		for (final TrPeerInfo ifo : peers.values()) {
-			if (ifo.lastTimeUsed > longestTimeSinceUsed) {
-				leastRecentlyUsedPeer = ifo.remoteNodeAddress.physicalLocation;
-				longestTimeSinceUsed = ifo.lastTimeUsed;
-			}
-		}
-
-		if (leastRecentlyUsedPeer == null) {
-			logger.warn("LRU peer was null.");
-		}
-
-		return leastRecentlyUsedPeer;
+	private void removePeer(final PhysicalNetworkLocation address) {
+		peerTable.remove(address);
+		evictionPolicy.removed(address);
 	}
 
 	/**
@@ -288,16 +333,8 @@ public class TrPeerManager {
 	 * @param updateFunction
 	 */
 	public void updatePeerInfo(final PhysicalNetworkLocation addr, final Function<TrPeerInfo, Void> updateFunction) {
-		final File pubNodeFile = node.getFileForPublicNode(addr);
-		if (pubNodeFile.exists()) {
-			Persistence.loadAndModify(TrPeerInfo.class, pubNodeFile, new Persistence.ModifyBlock<TrPeerInfo>() {
-
-				public void run(final TrPeerInfo object, final Modified modified) {
-					updateFunction.apply(object);
-				}
-			});
-		} else {
-			final TrPeerInfo peerToUpdate = peers.get(addr);
+		if (!peerInfoStore.modify(addr, updateFunction)) {
+			final TrPeerInfo peerToUpdate = peerTable.get(addr);
 			if (peerToUpdate != null) {
 				updateFunction.apply(peerToUpdate);
 			} else {
@@ -323,16 +360,15 @@ public class TrPeerManager {
 		}
 
 		public double get() {
-			return sum / total;
+			return (double) sum / total;
 		}
 
+		/**
+		 * A sample from the posterior distribution of the success rate,
+		 * starting from a uniform prior
+		 */
 		public double getBetaRandom() {
-			try {
-				return new BetaDistributionImpl(1 + sum, 1 + total - sum).sample();
-			} catch (final MathException e) {
-				e.printStackTrace();
-				return -1;
-			}
+			return TrRandom.nextBeta(1 + sum, 1 + total - sum);
 		}
 
 		public void sample(final boolean value) {
@@ -386,7 +422,11 @@ public class TrPeerManager {
 		}
 
 		public double getNormalRandom() {
-			return TrUtils.rand.nextGaussian() * getStandardDeviation() + mean();
+			return TrRandom.ids().nextGaussian() * getStandardDeviation() + mean();
+		}
+
+		public long getTotal() {
+			return total;
 		}
 
 		public double getStandardDeviation() {
@@ -417,6 +457,10 @@ public class TrPeerManager {
 		public RemoteNodeAddress remoteNodeAddress;
 		public int topologyLocation;
 		public long lastTimeUsed;
+		/**
+		 * Shared with our connection to the peer, if we have one
+		 */
+		public transient volatile PeerHealth health = new PeerHealth();
 
 		// To allow deserialization
 		public TrPeerInfo() {
@@ -16,6 +16,7 @@ public abstract class TrRemoteConnection {
 	protected RSAPublicKey remotePubKey;
 	protected final Runnable disconnectedCallback;
 	protected final boolean unilateralOutbound;
+	protected final PeerHealth health = new PeerHealth();
 
 	protected TrRemoteConnection(final PhysicalNetworkLocation remoteAddress, final RSAPublicKey remotePubKey,
 			final TrMessageListener listener, final Function<TrRemoteConnection, Void> connectedCallback,
@@ -37,6 +38,10 @@ public abstract class TrRemoteConnection {
 		return remoteAddress;
 	}
 
+	public PeerHealth getHealth() {
+		return health;
+	}
+
 	public abstract void send(final ByteArraySegment message, final double priority,
 			final TrSentReceivedListener sentListener) throws IOException;
 
@@ -99,7 +99,7 @@ public class TrSessionManager {
 	}
 
 	public <T extends TrSession> T getOrCreateRemoteSession(final Class<T> c, final TrRemoteConnection connection) {
-		return getOrCreateRemoteSession(c, connection, TrUtils.rand.nextInt());
+		return getOrCreateRemoteSession(c, connection, TrRandom.nextId());
 	}
 
 	@SuppressWarnings("unchecked")
@@ -365,7 +365,7 @@ public class TrSessionManager {
 	}
 
 	public <T extends TrSessionImpl> T getOrCreateLocalSession(final Class<T> cls) {
-		return this.getOrCreateLocalSession(cls, TrUtils.rand.nextInt());
+		return this.getOrCreateLocalSession(cls, TrRandom.nextId());
 	}
 
 	public static final Function<Object, String> toStringer = new Function<Object, String>() {
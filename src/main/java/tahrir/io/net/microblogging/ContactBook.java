@@ -10,8 +10,10 @@ import tahrir.tools.TrUtils;
 import java.io.*;
 import java.lang.reflect.Type;
 import java.security.interfaces.RSAPublicKey;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Manages a user's contacts which is analogous to who you are "following" on Twitter.
@@ -25,6 +27,7 @@ public class ContactBook {
 
 	private ConcurrentMap<RSAPublicKey, String> contacts;
 	private File contactsFile;
+	private final List<ContactAddedListener> listeners = new CopyOnWriteArrayList<ContactAddedListener>();
 
 	/**
 	 * Create a ContactBook which loads previous contacts recorded.
@@ -54,8 +57,21 @@ public class ContactBook {
 	}
 
 	public void addContact(final String alias, final RSAPublicKey publicKey) {
-		contacts.put(publicKey, alias);
+		final boolean added = contacts.put(publicKey, alias) == null;
 		persistContact();
+		if (added) {
+			for (final ContactAddedListener listener : listeners) {
+				listener.contactAdded(publicKey);
+			}
+		}
+	}
+
+	/**
+	 * @param listener Told whenever a new contact is added, but not when a
+	 *        contact's alias changes
+	 */
+	public void registerContactAddedListener(final ContactAddedListener listener) {
+		listeners.add(listener);
 	}
 
 	public String getAlias(final RSAPublicKey publicKey) {
@@ -83,4 +99,8 @@ public class ContactBook {
 			ioException.printStackTrace();
 		}
 	}
+
+	public interface ContactAddedListener {
+		public void contactAdded(RSAPublicKey publicKey);
+	}
 }
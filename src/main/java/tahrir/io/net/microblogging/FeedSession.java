@@ -0,0 +1,17 @@
+package tahrir.io.net.microblogging;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+
+import tahrir.TrConstants;
+import tahrir.io.net.TrSession;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+import tahrir.io.net.sessions.Priority;
+
+public interface FeedSession extends TrSession {
+	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
+	public void requestFeed(final RSAPublicKey author, final long fromSequence);
+
+	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
+	public void feedIs(final ArrayList<BroadcastMicroblog> mbs);
+}
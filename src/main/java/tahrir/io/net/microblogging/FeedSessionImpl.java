@@ -0,0 +1,42 @@
+package tahrir.io.net.microblogging;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+
+import tahrir.TrConstants;
+import tahrir.TrNode;
+import tahrir.io.net.PhysicalNetworkLocation;
+import tahrir.io.net.TrSessionImpl;
+import tahrir.io.net.TrSessionManager;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+
+/**
+ * A session for fetching an author's microblogs after the last one we have,
+ * in one request.
+ */
+public class FeedSessionImpl extends TrSessionImpl implements FeedSession {
+
+	public FeedSessionImpl(final Integer sessionId, final TrNode node, final TrSessionManager sessionMgr) {
+		super(sessionId, node, sessionMgr);
+	}
+
+	public void fetchFeed(final PhysicalNetworkLocation peer, final RSAPublicKey author) {
+		final FeedSession peerSess = remoteSession(FeedSession.class, connection(peer));
+		peerSess.requestFeed(author, node.mbClasses.feeds.getLatestSequence(author) + 1);
+	}
+
+	public void requestFeed(final RSAPublicKey author, final long fromSequence) {
+		final ArrayList<BroadcastMicroblog> mbs = node.mbClasses.feeds.getFrom(author, fromSequence,
+				TrConstants.FEED_FETCH_MAX);
+		if (!mbs.isEmpty()) {
+			final FeedSession requestorSess = remoteSession(FeedSession.class, connection(sender()));
+			requestorSess.feedIs(mbs);
+		}
+	}
+
+	public void feedIs(final ArrayList<BroadcastMicroblog> mbs) {
+		for (final BroadcastMicroblog mb : mbs) {
+			node.mbClasses.incomingMbHandler.handleInsertion(mb);
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package tahrir.io.net.microblogging;
+
+import java.util.List;
+
+import tahrir.TrConstants;
+import tahrir.io.net.PeerTable;
+import tahrir.io.net.TopologyRing;
+import tahrir.io.net.TrPeerManager.TopologyLocationInfo;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+
+/**
+ * Decides how widely to gossip a microblog. Each microblog is pushed to
+ * about ln(n) peers, where n is the estimated size of the network, which is
+ * enough to reach nearly every node. A few more or less are used depending on
+ * how often peers turn our offers down because they already have them.
+ * Microblogs past a certain age aren't pushed at all, peers which missed
+ * them can pull them through {@link MicroblogSync}.
+ */
+public class GossipTuner {
+	public static final double SMOOTHING = 0.05;
+
+	/**
+	 * If more offers than this are turned down we push to fewer peers
+	 */
+	public static final double HIGH_DUPLICATE_RATE = 0.75;
+
+	/**
+	 * If fewer offers than this are turned down we push to more peers
+	 */
+	public static final double LOW_DUPLICATE_RATE = 0.25;
+
+	private final PeerTable peerTable;
+
+	private final TopologyLocationInfo locInfo;
+
+	private double duplicateRate = 0.5;
+
+	public GossipTuner(final PeerTable peerTable, final TopologyLocationInfo locInfo) {
+		this.peerTable = peerTable;
+		this.locInfo = locInfo;
+	}
+
+	/**
+	 * Record how many microblogs of an offer the peer wanted
+	 */
+	public synchronized void offerAnswered(final int offered, final int wanted) {
+		if (offered <= 0)
+			return;
+		// The same as smoothing each microblog in turn, but order independent
+		final double weight = 1 - Math.pow(1 - SMOOTHING, offered);
+		duplicateRate += weight * ((double) (offered - wanted) / offered - duplicateRate);
+	}
+
+	public synchronized double getDuplicateRate() {
+		return duplicateRate;
+	}
+
+	/**
+	 * Estimate the size of the network from how densely our nearest peers
+	 * are packed around our topology location, as locations are spread
+	 * evenly around the ring.
+	 */
+	public int estimateNetworkSize() {
+		final List<TrPeerInfo> nearest = peerTable.getNearest(locInfo.getLocation(),
+				TrConstants.GOSSIP_SIZE_ESTIMATE_NEIGHBOURS);
+		if (nearest.isEmpty())
+			return 1;
+		final int furthest = TopologyRing.distance(nearest.get(nearest.size() - 1).topologyLocation,
+				locInfo.getLocation());
+		final double density = nearest.size() / (2.0 * Math.max(1, furthest));
+		final double estimate = density * Integer.MAX_VALUE + 1;
+		// We know of at least this many
+		return (int) Math.max(peerTable.size() + 1, Math.min(Integer.MAX_VALUE, estimate));
+	}
+
+	/**
+	 * How many peers each microblog should be pushed to
+	 */
+	public int getFanout() {
+		int fanout = (int) Math.ceil(Math.log(estimateNetworkSize())) + TrConstants.GOSSIP_FANOUT_MARGIN;
+		final double duplicates = getDuplicateRate();
+		if (duplicates > HIGH_DUPLICATE_RATE) {
+			fanout--;
+		} else if (duplicates < LOW_DUPLICATE_RATE) {
+			fanout++;
+		}
+		return Math.max(1, fanout);
+	}
+
+	/**
+	 * @return False if the microblog is old enough to be left for peers to
+	 *         pull
+	 */
+	public boolean shouldPush(final BroadcastMicroblog mb) {
+		// Test microblogs may have no creation time
+		if (mb.otherData == null)
+			return true;
+		final long age = System.currentTimeMillis() - mb.otherData.getTimeCreated();
+		return age < TrConstants.GOSSIP_PUSH_MAX_AGE_MINUTES * 60l * 1000;
+	}
+}
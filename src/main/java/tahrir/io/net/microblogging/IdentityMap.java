@@ -8,12 +8,13 @@ import java.util.Map;
 
 /**
  * This is used for mapping nick names, public keys and shortened public keys
- * to each other.
+ * to each other, and for finding the keys mentioned in compressed microblogs.
  *
  * @author Kieran Donegan <kdonegan.92@gmail.com>
  */
-public class IdentityMap {
+public class IdentityMap implements MicroblogCompressor.KnownKeys {
 	private final Map<HumanReadableIdentity, RSAPublicKey> idMap;
+	private final Map<Long, RSAPublicKey> byKeyId;
 	private final ShortenedPublicKeyFinder abbrPubKeyFinder;
 
 	public IdentityMap(final ShortenedPublicKeyFinder abbrPublicKeyFinder, final ContactBook contactBook) {
@@ -25,6 +26,10 @@ public class IdentityMap {
 				.maximumSize(TrConstants.ID_MAP_SIZE)
 				.<HumanReadableIdentity, RSAPublicKey>build() // no cache loader
 				.asMap();
+		byKeyId = CacheBuilder.newBuilder()
+				.maximumSize(TrConstants.ID_MAP_SIZE)
+				.<Long, RSAPublicKey>build()
+				.asMap();
 		abbrPubKeyFinder = abbrPublicKeyFinder;
 		// contacts are the people user is likely to mention first
 		moveContactsIntoCache(contactBook);
@@ -34,6 +39,7 @@ public class IdentityMap {
 		final String abbrPubKey = abbrPubKeyFinder.getShortenedKey(pubKey);
 		final HumanReadableIdentity readableId = new HumanReadableIdentity(nick, abbrPubKey);
 		idMap.put(readableId, pubKey);
+		byKeyId.put(MicroblogCompressor.keyId(pubKey), pubKey);
 	}
 
 	public void addNewIdentities(Map<RSAPublicKey, String> identities) {
@@ -47,6 +53,10 @@ public class IdentityMap {
 		return idMap.get(readableIdentity);
 	}
 
+	public RSAPublicKey getByKeyId(final long keyId) {
+		return byKeyId.get(keyId);
+	}
+
 	private void moveContactsIntoCache(ContactBook cb) {
 		for (Map.Entry<RSAPublicKey, String> entry : cb.getContacts().entrySet()) {
 			addNewIdentity(entry.getKey(), entry.getValue());
@@ -4,6 +4,8 @@ import nu.xom.ParsingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tahrir.TrConstants;
+import tahrir.io.net.microblogging.containers.AuthorFeeds;
+import tahrir.io.net.microblogging.containers.MicroblogArchive;
 import tahrir.io.net.microblogging.containers.MicroblogsForBroadcast;
 import tahrir.io.net.microblogging.containers.MicroblogsForViewing;
 import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
@@ -24,20 +26,30 @@ public class IncomingMicroblogHandler {
 
 	private final MicroblogsForViewing mbsForViewing;
 	private final MicroblogsForBroadcast mbsForBroadcast;
+	private final MicroblogArchive archive;
+	private final AuthorFeeds feeds;
 
 	private final ContactBook contactBook;
 	private final IdentityMap idMap;
 
 	public IncomingMicroblogHandler(final MicroblogsForViewing mbsForViewing,
-									final MicroblogsForBroadcast mbsForBroadcast,
-									final ContactBook contactBook, final IdentityMap identityMap) {
+									final MicroblogsForBroadcast mbsForBroadcast, final MicroblogArchive archive,
+									final AuthorFeeds feeds, final ContactBook contactBook, final IdentityMap identityMap) {
 		this.mbsForBroadcast = mbsForBroadcast;
+		this.archive = archive;
+		this.feeds = feeds;
 		this.mbsForViewing = mbsForViewing;
 		this.contactBook = contactBook;
 		idMap = identityMap;
 	}
 
 	public void handleInsertion(final BroadcastMicroblog mbForBroadcast) {
+		try {
+			mbForBroadcast.decompress(idMap);
+		} catch (final ParsingException e) {
+			logger.info("A microblog is being ignored because it failed to be decompressed");
+			return;
+		}
 		GeneralMicroblogInfo generalMbData = mbForBroadcast.otherData;
 		String unparsedMessage = mbForBroadcast.message;
 		if (!MicroblogIntegrityChecks.isValidMicroblog(generalMbData, unparsedMessage)) {
@@ -57,12 +69,17 @@ public class IncomingMicroblogHandler {
 			// a better priority if they're one of your contacts
 			mbForBroadcast.priority -= TrConstants.CONTACT_PRIORITY_INCREASE;
 		}
+		// hops comes from the sender, so mustn't let it jump the queue or
+		// wrap around the limit
+		mbForBroadcast.hops = Math.max(0, Math.min(mbForBroadcast.hops, TrConstants.BROADCAST_MAX_HOPS)) + 1;
 		ParsedMicroblog parsedMb = new ParsedMicroblog(generalMbData, parser.getMentionsFound().keySet(),
 				parser.getParsedParts());
 		addDiscoveredIdentities(parser.getMentionsFound(),
 				new Tuple2<RSAPublicKey, String>(generalMbData.getAuthorPubKey(), generalMbData.getAuthorNick()));
 		mbsForViewing.insert(parsedMb);
 		mbsForBroadcast.insert(mbForBroadcast);
+		archive.add(mbForBroadcast);
+		feeds.add(mbForBroadcast);
 	}
 
 	private void addDiscoveredIdentities(Map<RSAPublicKey, String> fromParsing,
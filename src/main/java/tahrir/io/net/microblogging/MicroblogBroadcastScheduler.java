@@ -1,23 +1,42 @@
 package tahrir.io.net.microblogging;
 
-import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tahrir.TrNode;
 import tahrir.io.net.PhysicalNetworkLocation;
 import tahrir.io.net.TrPeerManager.TrPeerInfo;
-import tahrir.io.net.microblogging.containers.MicroblogsForViewing;
+import tahrir.io.net.microblogging.containers.MicroblogsForBroadcast;
 import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+import tahrir.tools.TrRandom;
 import tahrir.tools.TrUtils;
 
-import java.util.HashSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Schedules a single microblog for broadcast to each peer one at a time.
+ * Schedules microblogs for broadcast to our peers. Several microblogs can be
+ * broadcast at once, and each is offered to several peers at once, within
+ * the limits set by its {@link Config}. Microblogs going to the same peer are
+ * offered together in a single batch, leaving out any the peer's
+ * {@link SeenSummaries seen summary} says it already has. How many peers each
+ * microblog goes to, and whether it is pushed at all, is left to the
+ * {@link GossipTuner}.
+ *
+ * Nothing runs while there's nothing to do: the scheduler wakes when a
+ * microblog is queued, when a peer which receives broadcasts joins, and when
+ * an offer finishes.
  *
  * @author Kieran Donegan <kdonegan.92@gmail.com>
  */
@@ -26,70 +45,326 @@ public class MicroblogBroadcastScheduler {
 
 	private final TrNode node;
 
-	private BroadcastMicroblog currentlyBroadcasting;
-	private Iterator<PhysicalNetworkLocation> peerIter;
+	private final MicroblogsForBroadcast mbsForBroadcast;
+
+	public final GossipTuner tuner;
+
+	/**
+	 * Microblogs being broadcast, which we take turns to offer to peers
+	 */
+	private final LinkedList<Broadcast> active = Lists.newLinkedList();
+
+	private final Map<PhysicalNetworkLocation, Integer> offersPerPeer = Maps.newHashMap();
+
+	private int offersInFlight = 0;
 
 	private boolean disabled = false;
 
-	public MicroblogBroadcastScheduler(final TrNode node) {
+	private final AtomicBoolean wakePending = new AtomicBoolean(false);
+
+	private final Runnable wake = new Runnable() {
+		public void run() {
+			wake();
+		}
+	};
+
+	private static final Ordering<TrPeerInfo> BY_HEALTH = new Ordering<TrPeerInfo>() {
+		@Override
+		public int compare(final TrPeerInfo left, final TrPeerInfo right) {
+			return Double.compare(right.health.getScore(), left.health.getScore());
+		}
+	};
+
+	public MicroblogBroadcastScheduler(final TrNode node, final MicroblogsForBroadcast mbsForBroadcast) {
 		this.node = node;
-		scheduleForLater();
+		this.mbsForBroadcast = mbsForBroadcast;
+		tuner = new GossipTuner(node.peerManager.peerTable, node.peerManager.locInfo);
+		mbsForBroadcast.registerInsertionListener(wake);
+		node.peerManager.peerTable.registerBroadcastReceiverListener(wake);
 	}
 
 	/**
 	 * Disable broadcasting, it won't broadcast anymore broadcasts that haven't already been scheduled. Useful to
 	 * testing.
 	 */
-	protected void disable() {
+	protected synchronized void disable() {
 		disabled = true;
 	}
 
+	/**
+	 * Start broadcasting whatever is queued, even if disabled.
+	 */
 	protected void setupForNextMicroblog() {
-		final Map<PhysicalNetworkLocation, TrPeerInfo> peerMap = node.peerManager.peers;
+		pump(true);
+	}
 
-		// we don't want to iterate over any new peers added as we could be there forever
-		// so we take a snap shot of the set
-		final Set<PhysicalNetworkLocation> snapShot = new HashSet<PhysicalNetworkLocation>();
+	/**
+	 * Have a look for something to do soon, on another thread. Any number of
+	 * wakes before then are handled together.
+	 */
+	public void wake() {
+		if (wakePending.compareAndSet(false, true)) {
+			TrUtils.executor.execute(new Runnable() {
+				public void run() {
+					wakePending.set(false);
+					try {
+						pump(false);
+					} catch (final Exception e) {
+						log.error("Error starting broadcasts", e);
+					}
+				}
+			});
+		}
+	}
 
-		for (final TrPeerInfo peerInfo : peerMap.values()) {
-			if (peerInfo.capabilities.receivesMessageBroadcasts) {
-				snapShot.add(peerInfo.remoteNodeAddress.physicalLocation);
-			} else {
-				if (log.isDebugEnabled()) log.debug("Not broadcasting to seed node");
+	/**
+	 * Start as many new broadcasts and offers to peers as our limits allow.
+	 *
+	 * @param evenIfDisabled Start new broadcasts even if disabled
+	 */
+	private void pump(final boolean evenIfDisabled) {
+		final List<Offer> toStart = Lists.newArrayList();
+		int started = 0;
+		try {
+			synchronized (this) {
+				final Config config = node.config.broadcast;
+				if (evenIfDisabled || !disabled) {
+					startNewBroadcasts(config);
+				}
+				chooseOffers(config, toStart);
+			}
+			// Not holding the lock, as an offer may fail straight away
+			for (; started < toStart.size(); started++) {
+				toStart.get(started).start();
+			}
+		} finally {
+			// If something went wrong, nothing will ever finish the offers we
+			// didn't get to start, so give back their slots now
+			for (final Offer offer : toStart.subList(started, toStart.size())) {
+				offer.finish();
 			}
 		}
+	}
 
-		// don't want to clog up network if we don't have minimum peers
-		if (snapShot.size() >= node.peerManager.config.minPeers) {
-			peerIter = snapShot.iterator();
-			currentlyBroadcasting = node.mbClasses.mbsForBroadcast.getMicroblogForBroadcast();
-			if (log.isDebugEnabled()) log.debug("Broadcasting microblog to a peer");
-			startBroadcastToPeer();
-		} else {
-			if (log.isDebugEnabled()) log.debug("Minimum peers for broadcast was not met. Scheduling a broadcast for later.");
-			scheduleForLater();
+	private void startNewBroadcasts(final Config config) {
+		while (active.size() < config.maxConcurrentMicroblogs) {
+			final Collection<TrPeerInfo> receivers = node.peerManager.peerTable.getBroadcastReceivers();
+			// don't want to clog up network if we don't have minimum peers
+			if (receivers.size() < node.peerManager.config.minPeers) {
+				if (log.isDebugEnabled()) log.debug("Minimum peers for broadcast was not met. Waiting for more peers.");
+				return;
+			}
+			final BroadcastMicroblog mb = mbsForBroadcast.getMicroblogForBroadcast();
+			if (mb == null)
+				return;
+			if (!tuner.shouldPush(mb)) {
+				if (log.isDebugEnabled()) log.debug("Leaving an old microblog for peers to pull");
+				continue;
+			}
+			// a random selection, so that different nodes push to different
+			// parts of the network
+			final List<TrPeerInfo> targets = Lists.newArrayList(receivers);
+			Collections.shuffle(targets, TrRandom.ids());
+			final int fanout = Math.min(tuner.getFanout(), targets.size());
+			if (log.isDebugEnabled()) log.debug("Broadcasting microblog to {} of {} peers", fanout, receivers.size());
+			// healthiest peers first, so that slow or lossy peers don't hold up
+			// everybody else
+			active.add(new Broadcast(mb, BY_HEALTH.sortedCopy(targets.subList(0, fanout))));
 		}
 	}
 
-	protected void startBroadcastToPeer() {
-		if (peerIter.hasNext()) {
-			final PhysicalNetworkLocation currentPeer = peerIter.next();
-			final MicroblogBroadcastSessionImpl localBroadcastSess = node.sessionMgr.getOrCreateLocalSession(MicroblogBroadcastSessionImpl.class);
-			localBroadcastSess.startSingleBroadcast(currentlyBroadcasting, currentPeer);
-		} else if (!disabled) {
-			setupForNextMicroblog();
+	/**
+	 * Take turns between the active broadcasts, giving each the next peer it
+	 * has yet to offer to which isn't already busy, until we reach our limits.
+	 * Every other active broadcast still to be offered to that peer goes in
+	 * the same batch, after the one which chose the peer.
+	 */
+	private void chooseOffers(final Config config, final List<Offer> toStart) {
+		final int batchSize = Math.min(config.batchSize, MicroblogBroadcastSessionImpl.MAX_BATCH_SIZE);
+		boolean progress = true;
+		while (progress && offersInFlight < config.maxOffersInFlight) {
+			progress = false;
+			for (final Broadcast broadcast : active) {
+				if (offersInFlight >= config.maxOffersInFlight) {
+					break;
+				}
+				final PhysicalNetworkLocation peer = broadcast.nextAvailablePeer(config.maxOffersPerPeer);
+				if (peer != null) {
+					// Take the offer's slots before filling its batch, so that
+					// they're given back even if filling it fails part way
+					final Offer offer = new Offer(peer);
+					offersInFlight++;
+					offersPerPeer.put(peer, getOffersTo(peer) + 1);
+					toStart.add(offer);
+					// It has already given up the peer, so it must go in
+					offer.batch.add(broadcast);
+					broadcast.inFlight++;
+					for (final Broadcast other : active) {
+						if (offer.batch.size() >= batchSize) {
+							break;
+						}
+						if (other != broadcast && other.pending.remove(peer) && !other.peerHasSeen(peer)) {
+							offer.batch.add(other);
+							other.inFlight++;
+						}
+					}
+					progress = true;
+				}
+			}
+		}
+		for (final Iterator<Broadcast> it = active.iterator(); it.hasNext();) {
+			if (it.next().isDone()) {
+				it.remove();
+			}
+		}
+	}
+
+	private synchronized void offerFinished(final Offer offer) {
+		for (final Broadcast broadcast : offer.batch) {
+			broadcast.inFlight--;
+		}
+		offersInFlight--;
+		final int remaining = getOffersTo(offer.peer) - 1;
+		if (remaining > 0) {
+			offersPerPeer.put(offer.peer, remaining);
 		} else {
-			log.info("Broadcasting disabled");
+			offersPerPeer.remove(offer.peer);
 		}
 	}
 
-	private void scheduleForLater() {
-		TrUtils.executor.schedule(new RunBroadcast(), 1, TimeUnit.MINUTES);
+	/**
+	 * Offer microblogs to a peer, running onDone once the peer has the ones
+	 * it wants or can't be reached
+	 */
+	protected void startOffer(final List<BroadcastMicroblog> microblogs, final PhysicalNetworkLocation peer,
+			final Runnable onDone) {
+		final MicroblogBroadcastSessionImpl localBroadcastSess = node.sessionMgr.getOrCreateLocalSession(MicroblogBroadcastSessionImpl.class);
+		localBroadcastSess.startBroadcast(microblogs, peer, onDone);
+	}
+
+	public synchronized int getOffersInFlight() {
+		return offersInFlight;
+	}
+
+	private int getOffersTo(final PhysicalNetworkLocation peer) {
+		final Integer offers = offersPerPeer.get(peer);
+		return offers == null ? 0 : offers;
+	}
+
+	/**
+	 * A microblog being broadcast, and the peers we have yet to offer it to
+	 */
+	private class Broadcast {
+		private final BroadcastMicroblog mb;
+		private final LinkedHashSet<PhysicalNetworkLocation> pending = new LinkedHashSet<PhysicalNetworkLocation>();
+		private int inFlight = 0;
+
+		public Broadcast(final BroadcastMicroblog mb, final List<TrPeerInfo> peers) {
+			this.mb = mb;
+			for (final TrPeerInfo peer : peers) {
+				pending.add(peer.remoteNodeAddress.physicalLocation);
+			}
+		}
+
+		public PhysicalNetworkLocation nextAvailablePeer(final int maxOffersPerPeer) {
+			for (final Iterator<PhysicalNetworkLocation> it = pending.iterator(); it.hasNext();) {
+				final PhysicalNetworkLocation peer = it.next();
+				if (peerHasSeen(peer)) {
+					it.remove();
+				} else if (getOffersTo(peer) < maxOffersPerPeer) {
+					it.remove();
+					return peer;
+				}
+			}
+			return null;
+		}
+
+		public boolean peerHasSeen(final PhysicalNetworkLocation peer) {
+			return node.mbClasses.seenSummaries.peerHasSeen(peer, mb.getDedupHash());
+		}
+
+		public boolean isDone() {
+			return pending.isEmpty() && inFlight == 0;
+		}
 	}
 
-	private class RunBroadcast implements Runnable {
+	/**
+	 * An offer of a batch of microblogs to a single peer, which finishes when
+	 * the peer has the ones it wants, fails, or doesn't answer in time.
+	 */
+	private class Offer implements Runnable {
+		private final List<Broadcast> batch = Lists.newArrayList();
+		private final PhysicalNetworkLocation peer;
+		private final AtomicBoolean finished = new AtomicBoolean(false);
+		private volatile ScheduledFuture<?> timeout;
+
+		public Offer(final PhysicalNetworkLocation peer) {
+			this.peer = peer;
+		}
+
+		public void start() {
+			timeout = TrUtils.executor.schedule(this, node.config.broadcast.offerTimeoutSeconds, TimeUnit.SECONDS);
+			final List<BroadcastMicroblog> microblogs = Lists.newArrayListWithCapacity(batch.size());
+			for (final Broadcast broadcast : batch) {
+				microblogs.add(broadcast.mb);
+			}
+			startOffer(microblogs, peer, this);
+		}
+
 		public void run() {
-			setupForNextMicroblog();
+			if (finish()) {
+				pump(false);
+			}
 		}
+
+		/**
+		 * Give back the offer's slots, unless it has already finished
+		 *
+		 * @return False if it had already finished
+		 */
+		private boolean finish() {
+			if (!finished.compareAndSet(false, true))
+				return false;
+			if (timeout != null) {
+				timeout.cancel(false);
+			}
+			offerFinished(this);
+			return true;
+		}
+	}
+
+	public static class Config {
+		/**
+		 * How many microblogs may be broadcast at the same time. Batches are
+		 * made up of these, so this is also the most a batch can hold,
+		 * whatever its {@link #batchSize}.
+		 */
+		public int maxConcurrentMicroblogs = 32;
+
+		/**
+		 * How many offers, to any peer and of any microblog, may be waiting
+		 * for an answer at the same time
+		 */
+		public int maxOffersInFlight = 16;
+
+		public int maxOffersPerPeer = 2;
+
+		/**
+		 * How many microblogs may be offered to a peer in one go, at most
+		 * {@link MicroblogBroadcastSessionImpl#MAX_BATCH_SIZE} and
+		 * {@link #maxConcurrentMicroblogs}
+		 */
+		public int batchSize = 32;
+
+		/**
+		 * How long to wait for a peer to answer an offer before moving on
+		 */
+		public int offerTimeoutSeconds = 10;
+
+		/**
+		 * Whether to send microblogs in the compact
+		 * {@link MicroblogCompressor} encoding rather than as XML
+		 */
+		public boolean compressMicroblogs = false;
 	}
 }
@@ -1,5 +1,7 @@
 package tahrir.io.net.microblogging;
 
+import java.util.ArrayList;
+
 import tahrir.TrConstants;
 import tahrir.io.net.TrSession;
 import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
@@ -7,13 +9,24 @@ import tahrir.io.net.sessions.Priority;
 
 public interface MicroblogBroadcastSession extends TrSession {
 	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
-	public void areYouInterested(final int mbHash);
+	public void offerInventory(final ArrayList<Long> mbHashes);
+
+	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
+	public void insertMicroblogs(final ArrayList<BroadcastMicroblog> mbs);
 
+	/**
+	 * @param wanted Bit n is set if the receiver wants the nth microblog offered
+	 */
 	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
-	public void insertMicroblog(final BroadcastMicroblog mb);
+	public void wantedAre(long wanted);
 
+	/**
+	 * @param unknown Bit n is set if the nth microblog sent mentions a key
+	 *        the receiver doesn't know, so must be sent again with its keys
+	 *        in full
+	 */
 	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
-	public void interestIs(boolean interest);
+	public void keysUnknownFor(long unknown);
 
 	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
 	public void sessionFinished();
@@ -1,77 +1,199 @@
 package tahrir.io.net.microblogging;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import nu.xom.ParsingException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tahrir.TrNode;
 import tahrir.io.net.PhysicalNetworkLocation;
 import tahrir.io.net.TrSessionImpl;
 import tahrir.io.net.TrSessionManager;
+import tahrir.io.net.microblogging.MicroblogCompressor.UnknownKeyException;
 import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
 
 /**
- * A session for broadcasting a microblog to a node.
+ * A session for broadcasting a batch of microblogs to a node.
  * <p/>
- * The microblog will be broadcast if a node expresses interest based
- * on a probalistic condition otherwise the session will end.
+ * The node is offered the hashes of the microblogs in one message and replies
+ * with a bitmap of the ones it doesn't have, which are then sent together.
+ * If any were compressed mentioning keys the node doesn't know, it replies
+ * with a bitmap of those and they are sent again with their keys in full.
  *
  * @author Kieran Donegan <kdonegan.92@gmail.com>
  */
 public class MicroblogBroadcastSessionImpl extends TrSessionImpl implements MicroblogBroadcastSession {
 	private static final Logger logger = LoggerFactory.getLogger(MicroblogBroadcastSessionImpl.class.getName());
 
-	private BroadcastMicroblog beingSent;
+	/**
+	 * As the receiver replies with a long bitmap
+	 */
+	public static final int MAX_BATCH_SIZE = 64;
+
+	private List<BroadcastMicroblog> beingSent;
+
+	/**
+	 * The microblogs last sent to the receiver, in the order it got them,
+	 * before any compression
+	 */
+	private List<BroadcastMicroblog> sent;
+
+	/**
+	 * Whether we've already sent microblogs again with their keys in full,
+	 * after which the receiver has no reason to ask again
+	 */
+	private boolean sentFullKeys;
 
 	private MicroblogBroadcastSession receiverSess;
 	private MicroblogBroadcastSession initiatorSess;
 
-	private boolean nextBroadcastStarted;
+	private boolean finished;
+
+	private Runnable onFinished;
 
 	public MicroblogBroadcastSessionImpl(final Integer sessionId, final TrNode node, final TrSessionManager sessionMgr) {
 		super(sessionId, node, sessionMgr);
 	}
 
-	public void startSingleBroadcast(final BroadcastMicroblog mbToBroadcast, final PhysicalNetworkLocation peerPhysicalLoc) {
-		nextBroadcastStarted = false;
-		beingSent = mbToBroadcast;
-		receiverSess = remoteSession(MicroblogBroadcastSession.class, connection(peerPhysicalLoc));
+	/**
+	 * @param mbsToBroadcast At most {@link #MAX_BATCH_SIZE} microblogs
+	 * @param onFinished Run once the peer has the microblogs it wants, or
+	 *        can't be reached
+	 */
+	public void startBroadcast(final List<BroadcastMicroblog> mbsToBroadcast, final PhysicalNetworkLocation peerPhysicalLoc,
+			final Runnable onFinished) {
+		if (mbsToBroadcast.size() > MAX_BATCH_SIZE)
+			throw new IllegalArgumentException("Can't offer more than " + MAX_BATCH_SIZE + " microblogs at once");
+		finished = false;
+		this.onFinished = onFinished;
+		beingSent = mbsToBroadcast;
+		sent = null;
+		sentFullKeys = false;
+		final ArrayList<Long> mbHashes = new ArrayList<Long>(beingSent.size());
+		for (final BroadcastMicroblog mb : beingSent) {
+			mbHashes.add(mb.getDedupHash());
+		}
+		receiverSess = remoteBroadcastSession(peerPhysicalLoc);
 		receiverSess.registerFailureListener(new OnFailureRun());
-		receiverSess.areYouInterested(beingSent.hashCode());
+		receiverSess.offerInventory(mbHashes);
 	}
 
-	public void areYouInterested(final int mbHash) {
-		initiatorSess = remoteSession(MicroblogBroadcastSession.class, connection(sender()));
+	public void offerInventory(final ArrayList<Long> mbHashes) {
+		initiatorSess = remoteBroadcastSession(sender());
 
-		initiatorSess.interestIs(!node.mbClasses.mbsForBroadcast.isLikelyToContain(mbHash));
+		long wanted = 0;
+		for (int x = 0; x < Math.min(mbHashes.size(), MAX_BATCH_SIZE); x++) {
+			if (!node.mbClasses.mbsForBroadcast.isLikelyToContain(mbHashes.get(x))) {
+				wanted |= 1l << x;
+			}
+		}
+		initiatorSess.wantedAre(wanted);
 	}
 
-	public void interestIs(final boolean interest) {
-		if (interest) {
-			receiverSess.insertMicroblog(beingSent);
-		} else {
+	public void wantedAre(long wanted) {
+		if (beingSent == null || sent != null) {
+			logger.debug("Ignoring an answer to an offer we didn't make");
+			return;
+		}
+		// The receiver may set bits beyond what we offered
+		wanted &= batchMask(beingSent.size());
+		node.mbClasses.mbScheduler.tuner.offerAnswered(beingSent.size(), Long.bitCount(wanted));
+		final boolean compress = node.config.broadcast.compressMicroblogs;
+		final ArrayList<BroadcastMicroblog> wantedMbs = new ArrayList<BroadcastMicroblog>(Long.bitCount(wanted));
+		final ArrayList<BroadcastMicroblog> toSend = new ArrayList<BroadcastMicroblog>(Long.bitCount(wanted));
+		for (int x = 0; x < beingSent.size(); x++) {
+			if ((wanted & (1l << x)) != 0) {
+				final BroadcastMicroblog mb = beingSent.get(x);
+				wantedMbs.add(mb);
+				toSend.add(compress ? mb.toCompressed(false) : mb);
+			}
+		}
+		if (toSend.isEmpty()) {
 			sessionFinished();
+		} else {
+			sent = wantedMbs;
+			receiverSess.insertMicroblogs(toSend);
 		}
 	}
 
-	public void insertMicroblog(final BroadcastMicroblog mb) {
-		node.mbClasses.incomingMbHandler.handleInsertion(mb);
-		// TODO: this is a workaround until we have a registerSuccessListener()
-		initiatorSess.sessionFinished();
+	public void insertMicroblogs(final ArrayList<BroadcastMicroblog> mbs) {
+		long unknown = 0;
+		for (int x = 0; x < mbs.size(); x++) {
+			final BroadcastMicroblog mb = mbs.get(x);
+			try {
+				mb.decompress(node.mbClasses.idMap);
+			} catch (final UnknownKeyException e) {
+				if (x < MAX_BATCH_SIZE) {
+					unknown |= 1l << x;
+				}
+				continue;
+			} catch (final ParsingException e) {
+				logger.info("A microblog is being ignored because it failed to be decompressed");
+				continue;
+			}
+			node.mbClasses.incomingMbHandler.handleInsertion(mb);
+		}
+		if (unknown != 0) {
+			initiatorSess.keysUnknownFor(unknown);
+		} else {
+			// TODO: this is a workaround until we have a registerSuccessListener()
+			initiatorSess.sessionFinished();
+		}
+	}
+
+	public void keysUnknownFor(final long unknown) {
+		if (sent == null || sentFullKeys) {
+			sessionFinished();
+			return;
+		}
+		final ArrayList<BroadcastMicroblog> unknownMbs = new ArrayList<BroadcastMicroblog>(Long.bitCount(unknown));
+		final ArrayList<BroadcastMicroblog> toSend = new ArrayList<BroadcastMicroblog>(Long.bitCount(unknown));
+		for (int x = 0; x < sent.size(); x++) {
+			if ((unknown & (1l << x)) != 0) {
+				unknownMbs.add(sent.get(x));
+				toSend.add(sent.get(x).toCompressed(true));
+			}
+		}
+		if (toSend.isEmpty()) {
+			sessionFinished();
+		} else {
+			sent = unknownMbs;
+			sentFullKeys = true;
+			receiverSess.insertMicroblogs(toSend);
+		}
 	}
 
 	public void sessionFinished() {
-		startBroadcastToNextPeer();
+		finish();
+	}
+
+	/**
+	 * The session of the same broadcast at the other end
+	 */
+	protected MicroblogBroadcastSession remoteBroadcastSession(final PhysicalNetworkLocation peer) {
+		return remoteSession(MicroblogBroadcastSession.class, connection(peer));
+	}
+
+	private static long batchMask(final int size) {
+		return size >= MAX_BATCH_SIZE ? -1l : (1l << size) - 1;
 	}
 
-	private synchronized void startBroadcastToNextPeer() {
-		if (!nextBroadcastStarted) {
-			nextBroadcastStarted = true;
-			node.mbClasses.mbScheduler.startBroadcastToPeer();
+	private void finish() {
+		final Runnable toRun;
+		synchronized (this) {
+			if (finished || onFinished == null)
+				return;
+			finished = true;
+			toRun = onFinished;
 		}
+		toRun.run();
 	}
 
 	private class OnFailureRun implements Runnable {
 		public void run() {
-			startBroadcastToNextPeer();
+			finish();
 		}
 	}
 }
@@ -0,0 +1,230 @@
+package tahrir.io.net.microblogging;
+
+import java.io.*;
+import java.security.interfaces.RSAPublicKey;
+import java.util.*;
+
+import nu.xom.ParsingException;
+import tahrir.io.crypto.TrCrypto;
+import tahrir.io.net.microblogging.MicroblogParser.MentionPart;
+import tahrir.io.net.microblogging.MicroblogParser.ParsedPart;
+import tahrir.io.net.microblogging.MicroblogParser.PositionComparator;
+import tahrir.io.net.microblogging.MicroblogParser.TextPart;
+import tahrir.tools.*;
+import tahrir.tools.ByteArraySegment.ByteArraySegmentBuilder;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.*;
+import com.google.common.hash.Hashing;
+
+/**
+ * A compact encoding of a microblog's message, used in place of its XML.
+ * <p/>
+ * Text is Huffman coded with a frequency table counted from a corpus which
+ * every node ships with, falling back to UTF-8 for text with characters the
+ * table doesn't have. A mentioned public key is written once, and every later
+ * mention of it in the same microblog is just its index.
+ * <p/>
+ * Keys are normally written as their {@link #keyId(RSAPublicKey) id}, which
+ * the receiver looks up among the {@link KnownKeys keys it knows}. A receiver
+ * which doesn't know one asks for the microblog again with its keys written
+ * out in full, as their encoded bytes rather than in base64.
+ * <p/>
+ * Microblogs are signed as XML, so only XML which we'd produce again from
+ * the encoding, byte for byte, may be compressed.
+ */
+public class MicroblogCompressor {
+	/**
+	 * The first byte of every compressed microblog, which says which corpus
+	 * it was compressed with
+	 */
+	public static final byte VERSION = 1;
+
+	private static final String CORPUS_V1 = "microblog-corpus-v1.txt";
+
+	private static final byte TEXT = 0, MENTION = 1, MENTION_REF = 2, MENTION_ID = 3;
+
+	private static final ShortTextCompressor textCompressor = new ShortTextCompressor(
+			CorpusFrequencyTable.fromResource(MicroblogCompressor.class, CORPUS_V1));
+
+	/**
+	 * Looks up mentioned keys by their id when decompressing
+	 */
+	public interface KnownKeys {
+		/**
+		 * @return The key, or null if we don't know it
+		 */
+		public RSAPublicKey getByKeyId(long keyId);
+	}
+
+	/**
+	 * Thrown when a microblog mentions a key by an id we don't know, in
+	 * which case it should be asked for again with its keys in full
+	 */
+	public static class UnknownKeyException extends ParsingException {
+		private static final long serialVersionUID = 1L;
+
+		public UnknownKeyException(final long keyId) {
+			super("Unknown key id " + keyId);
+		}
+	}
+
+	/**
+	 * @return The first 64 bits of a SHA-256 digest of the key
+	 */
+	public static long keyId(final RSAPublicKey key) {
+		return Hashing.sha256().hashBytes(key.getEncoded()).asLong();
+	}
+
+	/**
+	 * @param fullKeys Whether to write mentioned keys out in full, for a
+	 *        receiver which didn't know them by their ids
+	 * @return The compressed message, or null if it isn't XML we can
+	 *         reproduce exactly and so must be sent as it is
+	 */
+	public static ByteArraySegment compress(final String message, final boolean fullKeys) {
+		final ImmutableSortedMultiset<ParsedPart> parts;
+		try {
+			parts = new MicroblogParser(message).getParsedParts();
+		} catch (final ParsingException e) {
+			return null;
+		}
+		if (!MicroblogParser.getXML(parts).equals(message))
+			return null;
+		try {
+			final ByteArraySegmentBuilder builder = ByteArraySegment.builder();
+			builder.writeByte(VERSION);
+			final List<RSAPublicKey> keys = new ArrayList<RSAPublicKey>();
+			for (final ParsedPart part : parts) {
+				if (part instanceof TextPart) {
+					builder.writeByte(TEXT);
+					writeText(part.toText(), builder);
+				} else {
+					final MentionPart mention = (MentionPart) part;
+					final int index = keys.indexOf(mention.getPubKeyOfMentioned());
+					if (index == -1) {
+						if (fullKeys) {
+							builder.writeByte(MENTION);
+							final byte[] encoded = mention.getPubKeyOfMentioned().getEncoded();
+							writeLength(encoded.length, builder);
+							builder.write(encoded);
+						} else {
+							builder.writeByte(MENTION_ID);
+							builder.writeLong(keyId(mention.getPubKeyOfMentioned()));
+						}
+						keys.add(mention.getPubKeyOfMentioned());
+					} else {
+						builder.writeByte(MENTION_REF);
+						writeLength(index, builder);
+					}
+					writeText(mention.getAliasOfMentioned(), builder);
+				}
+			}
+			return builder.build();
+		} catch (final IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * @return The message as XML, exactly as it was signed
+	 * @throws UnknownKeyException If a key mentioned by its id isn't known
+	 */
+	public static String decompress(final ByteArraySegment compressed, final KnownKeys knownKeys)
+			throws ParsingException {
+		final DataInputStream dis = compressed.toDataInputStream();
+		final SortedMultiset<ParsedPart> parts = TreeMultiset.create(new PositionComparator());
+		try {
+			final byte version = dis.readByte();
+			if (version != VERSION)
+				throw new ParsingException("Unknown compressed microblog version " + version);
+			final List<RSAPublicKey> keys = new ArrayList<RSAPublicKey>();
+			int position = 0;
+			while (dis.available() > 0) {
+				final byte type = dis.readByte();
+				if (type == TEXT) {
+					parts.add(new TextPart(position++, readText(dis)));
+				} else if (type == MENTION || type == MENTION_ID || type == MENTION_REF) {
+					final RSAPublicKey key;
+					if (type == MENTION) {
+						key = TrCrypto.decodeRSAPublicKey(readBytes(readLength(dis), dis));
+						keys.add(key);
+					} else if (type == MENTION_ID) {
+						final long keyId = dis.readLong();
+						key = knownKeys.getByKeyId(keyId);
+						if (key == null)
+							throw new UnknownKeyException(keyId);
+						keys.add(key);
+					} else {
+						key = keys.get(readLength(dis));
+					}
+					parts.add(new MentionPart(position++, key, readText(dis)));
+				} else
+					throw new ParsingException("Unrecognised part type " + type);
+			}
+		} catch (final ParsingException e) {
+			throw e;
+		} catch (final Exception e) {
+			// Truncated or otherwise corrupt
+			throw new ParsingException("Couldn't decompress microblog: " + e);
+		}
+		return MicroblogParser.getXML(parts);
+	}
+
+	/**
+	 * The lowest bit of the length says whether the text was Huffman coded,
+	 * in which case it is the number of characters followed by the number of
+	 * bytes they were coded in. Otherwise it is the number of bytes of UTF-8.
+	 */
+	private static void writeText(final String text, final DataOutputStream dos) throws IOException {
+		if (textCompressor.canCompress(text)) {
+			final byte[] coded = textCompressor.compress(text);
+			writeLength(text.length() << 1, dos);
+			writeLength(coded.length, dos);
+			dos.write(coded);
+		} else {
+			final byte[] utf8 = text.getBytes(Charsets.UTF_8);
+			writeLength(utf8.length << 1 | 1, dos);
+			dos.write(utf8);
+		}
+	}
+
+	private static String readText(final DataInputStream dis) throws IOException {
+		final int length = readLength(dis);
+		if ((length & 1) == 0) {
+			return textCompressor.deCompress(readBytes(readLength(dis), dis), length >>> 1);
+		} else
+			return new String(readBytes(length >>> 1, dis), Charsets.UTF_8);
+	}
+
+	private static byte[] readBytes(final int length, final DataInputStream dis) throws IOException {
+		// Don't let a corrupt length have us allocate more than was sent
+		if (length > dis.available())
+			throw new EOFException();
+		final byte[] bytes = new byte[length];
+		dis.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Seven bits to a byte, so that the short lengths of microblogs take one
+	 */
+	private static void writeLength(int length, final DataOutputStream dos) throws IOException {
+		while (length > 0x7F) {
+			dos.writeByte(0x80 | length & 0x7F);
+			length >>>= 7;
+		}
+		dos.writeByte(length);
+	}
+
+	private static int readLength(final DataInputStream dis) throws IOException {
+		int length = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			final int b = dis.readUnsignedByte();
+			length |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return length;
+		}
+		throw new IOException("Length is too long");
+	}
+}
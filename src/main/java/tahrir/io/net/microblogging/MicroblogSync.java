@@ -0,0 +1,78 @@
+package tahrir.io.net.microblogging;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tahrir.TrConstants;
+import tahrir.TrNode;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.tools.TrRandom;
+import tahrir.tools.TrUtils;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Periodically catches up with a random peer on any microblogs we missed,
+ * starting shortly after we come back online, and fetches anything new in
+ * our contacts' feeds.
+ */
+public class MicroblogSync {
+	private static final Logger logger = LoggerFactory.getLogger(MicroblogSync.class);
+
+	private final TrNode node;
+
+	public MicroblogSync(final TrNode node) {
+		this.node = node;
+		TrUtils.executor.scheduleWithFixedDelay(new Runnable() {
+
+			public void run() {
+				try {
+					catchUp();
+				} catch (final Exception e) {
+					logger.error("Error catching up on microblogs", e);
+				}
+			}
+		}, 1, TrConstants.MICROBLOG_SYNC_MINUTES, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @return False if we have no peers to catch up with
+	 */
+	public boolean catchUp() {
+		final TrPeerInfo peer = getRandomPeer();
+		if (peer == null)
+			return false;
+		final MicroblogSyncSessionImpl sess = node.sessionMgr.getOrCreateLocalSession(MicroblogSyncSessionImpl.class);
+		sess.startCatchUp(peer.remoteNodeAddress.physicalLocation);
+		for (final RSAPublicKey contact : node.mbClasses.contactBook.getContacts().keySet()) {
+			fetchFeed(contact);
+		}
+		return true;
+	}
+
+	/**
+	 * Fetch the author's microblogs after the last one we have, for example
+	 * when we start following them.
+	 *
+	 * @return False if we have no peers to fetch from
+	 */
+	public boolean fetchFeed(final RSAPublicKey author) {
+		final TrPeerInfo peer = getRandomPeer();
+		if (peer == null)
+			return false;
+		final FeedSessionImpl sess = node.sessionMgr.getOrCreateLocalSession(FeedSessionImpl.class);
+		sess.fetchFeed(peer.remoteNodeAddress.physicalLocation, author);
+		return true;
+	}
+
+	private TrPeerInfo getRandomPeer() {
+		final List<TrPeerInfo> peers = Lists.newArrayList(node.peerManager.peerTable.getBroadcastReceivers());
+		if (peers.isEmpty())
+			return null;
+		return peers.get(TrRandom.ids().nextInt(peers.size()));
+	}
+}
@@ -0,0 +1,40 @@
+package tahrir.io.net.microblogging;
+
+import java.util.ArrayList;
+
+import tahrir.TrConstants;
+import tahrir.io.net.TrSession;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+import tahrir.io.net.sessions.Priority;
+
+/*
+ * Catching up with a peer on the microblogs we missed while we were away
+ *
+ * requestor -> peer : bucketDigestsAre()
+ * requestor <- peer : differingHashesAre()   only for buckets whose digests differ
+ * requestor -> peer : sendMicroblogs()       only those the requestor doesn't have
+ * requestor <- peer : insertMicroblogs()
+ */
+
+public interface MicroblogSyncSession extends TrSession {
+	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
+	public void bucketDigestsAre(final long firstBucket, final ArrayList<Long> digests);
+
+	/**
+	 * @param sliceDigests The digests of every slice of each bucket in turn
+	 */
+	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
+	public void sliceDigestsAre(final ArrayList<Long> bucketNos, final ArrayList<Long> sliceDigests);
+
+	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
+	public void sendSliceHashes(final ArrayList<Long> slices);
+
+	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
+	public void differingHashesAre(final ArrayList<Long> mbHashes);
+
+	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
+	public void sendMicroblogs(final ArrayList<Long> mbHashes);
+
+	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
+	public void insertMicroblogs(final ArrayList<BroadcastMicroblog> mbs);
+}
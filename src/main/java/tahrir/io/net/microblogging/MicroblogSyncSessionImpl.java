@@ -0,0 +1,94 @@
+package tahrir.io.net.microblogging;
+
+import java.util.ArrayList;
+
+import tahrir.TrNode;
+import tahrir.io.net.PhysicalNetworkLocation;
+import tahrir.io.net.TrSessionImpl;
+import tahrir.io.net.TrSessionManager;
+import tahrir.io.net.microblogging.containers.MicroblogArchive;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+
+/**
+ * A session for fetching the microblogs a peer has which we don't, sending
+ * roughly as much as the difference between us rather than everything.
+ * <p/>
+ * We send the peer our bucket digests, and it sends back the slice digests
+ * of the buckets which differ. We then ask for the hashes in the slices
+ * which differ, and for the microblogs we don't have.
+ */
+public class MicroblogSyncSessionImpl extends TrSessionImpl implements MicroblogSyncSession {
+	private MicroblogSyncSession peerSess;
+	private MicroblogSyncSession requestorSess;
+
+	public MicroblogSyncSessionImpl(final Integer sessionId, final TrNode node, final TrSessionManager sessionMgr) {
+		super(sessionId, node, sessionMgr);
+	}
+
+	public void startCatchUp(final PhysicalNetworkLocation peer) {
+		final MicroblogArchive archive = node.mbClasses.archive;
+		final long firstBucket = archive.getFirstBucket();
+		peerSess = remoteSession(MicroblogSyncSession.class, connection(peer));
+		peerSess.bucketDigestsAre(firstBucket, archive.getDigests(firstBucket, archive.getBucketCount()));
+	}
+
+	public void bucketDigestsAre(final long firstBucket, final ArrayList<Long> digests) {
+		final MicroblogArchive archive = node.mbClasses.archive;
+		final ArrayList<Long> differing = archive.getDifferingBuckets(firstBucket, digests);
+		if (differing.isEmpty()) {
+			logger.debug("Requestor is up to date");
+			return;
+		}
+		requestorSess = remoteSession(MicroblogSyncSession.class, connection(sender()));
+		requestorSess.sliceDigestsAre(differing, archive.getSliceDigests(differing));
+	}
+
+	public void sliceDigestsAre(final ArrayList<Long> bucketNos, final ArrayList<Long> sliceDigests) {
+		if (peerSess == null)
+			return;
+		final ArrayList<Long> differing = node.mbClasses.archive.getDifferingSlices(bucketNos, sliceDigests);
+		if (differing.isEmpty()) {
+			logger.debug("The peer has nothing we don't");
+			return;
+		}
+		peerSess.sendSliceHashes(differing);
+	}
+
+	public void sendSliceHashes(final ArrayList<Long> slices) {
+		if (requestorSess == null)
+			return;
+		requestorSess.differingHashesAre(node.mbClasses.archive.getSliceHashes(slices));
+	}
+
+	public void differingHashesAre(final ArrayList<Long> mbHashes) {
+		final ArrayList<Long> missing = new ArrayList<Long>();
+		for (final Long mbHash : mbHashes) {
+			if (!node.mbClasses.archive.contains(mbHash)) {
+				missing.add(mbHash);
+			}
+		}
+		if (!missing.isEmpty()) {
+			logger.debug("Fetching {} missed microblogs", missing.size());
+			peerSess.sendMicroblogs(missing);
+		}
+	}
+
+	public void sendMicroblogs(final ArrayList<Long> mbHashes) {
+		final ArrayList<BroadcastMicroblog> mbs = new ArrayList<BroadcastMicroblog>(mbHashes.size());
+		for (final Long mbHash : mbHashes) {
+			final BroadcastMicroblog mb = node.mbClasses.archive.get(mbHash);
+			if (mb != null) {
+				mbs.add(mb);
+			}
+		}
+		if (!mbs.isEmpty()) {
+			requestorSess.insertMicroblogs(mbs);
+		}
+	}
+
+	public void insertMicroblogs(final ArrayList<BroadcastMicroblog> mbs) {
+		for (final BroadcastMicroblog mb : mbs) {
+			node.mbClasses.incomingMbHandler.handleInsertion(mb);
+		}
+	}
+}
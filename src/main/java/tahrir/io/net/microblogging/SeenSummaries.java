@@ -0,0 +1,74 @@
+package tahrir.io.net.microblogging;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tahrir.TrConstants;
+import tahrir.TrNode;
+import tahrir.io.net.PhysicalNetworkLocation;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.tools.TrBloomFilter;
+import tahrir.tools.TrUtils;
+
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Periodically sends our peers a summary of the microblogs we've seen
+ * recently, and keeps the summaries they send us so that we can skip
+ * offering them microblogs they almost certainly have.
+ */
+public class SeenSummaries {
+	private static final Logger logger = LoggerFactory.getLogger(SeenSummaries.class);
+
+	private final TrNode node;
+
+	/**
+	 * A summary older than a couple of exchanges is too out of date to trust
+	 */
+	private final Map<PhysicalNetworkLocation, TrBloomFilter> peerSummaries = CacheBuilder.newBuilder()
+			.expireAfterWrite(TrConstants.SEEN_SUMMARY_EXCHANGE_MINUTES * 2, TimeUnit.MINUTES)
+			.<PhysicalNetworkLocation, TrBloomFilter>build().asMap();
+
+	public SeenSummaries(final TrNode node) {
+		this.node = node;
+		TrUtils.executor.scheduleWithFixedDelay(new Runnable() {
+
+			public void run() {
+				try {
+					sendSummaries();
+				} catch (final Exception e) {
+					logger.error("Error sending seen summaries", e);
+				}
+			}
+		}, TrConstants.SEEN_SUMMARY_EXCHANGE_MINUTES, TrConstants.SEEN_SUMMARY_EXCHANGE_MINUTES, TimeUnit.MINUTES);
+	}
+
+	public void sendSummaries() {
+		final TrBloomFilter summary = node.mbClasses.mbsForBroadcast.getSeenSummary();
+		for (final TrPeerInfo peer : node.peerManager.peerTable.getBroadcastReceivers()) {
+			final SeenSummarySessionImpl sess = node.sessionMgr.getOrCreateLocalSession(SeenSummarySessionImpl.class);
+			sess.sendSummary(peer.remoteNodeAddress.physicalLocation, summary);
+		}
+	}
+
+	public void received(final PhysicalNetworkLocation peer, final TrBloomFilter summary) {
+		if (summary == null
+				|| !summary.isValid(TrConstants.SEEN_SUMMARY_MAX_BITS, TrConstants.SEEN_SUMMARY_MAX_HASHES)) {
+			logger.warn("Ignoring a malformed seen summary from {}", peer);
+			return;
+		}
+		peerSummaries.put(peer, summary);
+	}
+
+	/**
+	 * @return True if the last summary from the peer says it has almost
+	 *         certainly seen the microblog
+	 */
+	public boolean peerHasSeen(final PhysicalNetworkLocation peer, final long mbHash) {
+		final TrBloomFilter summary = peerSummaries.get(peer);
+		return summary != null && summary.mightContain(mbHash);
+	}
+}
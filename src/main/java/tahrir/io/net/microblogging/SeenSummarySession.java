@@ -0,0 +1,11 @@
+package tahrir.io.net.microblogging;
+
+import tahrir.TrConstants;
+import tahrir.io.net.TrSession;
+import tahrir.io.net.sessions.Priority;
+import tahrir.tools.TrBloomFilter;
+
+public interface SeenSummarySession extends TrSession {
+	@Priority(TrConstants.MICROBLOG_BROADCAST_PRIORITY)
+	public void seenSummaryIs(final TrBloomFilter summary);
+}
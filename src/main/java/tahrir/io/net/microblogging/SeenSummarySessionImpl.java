@@ -0,0 +1,26 @@
+package tahrir.io.net.microblogging;
+
+import tahrir.TrNode;
+import tahrir.io.net.PhysicalNetworkLocation;
+import tahrir.io.net.TrSessionImpl;
+import tahrir.io.net.TrSessionManager;
+import tahrir.tools.TrBloomFilter;
+
+/**
+ * A session for telling a peer which microblogs we've seen recently.
+ */
+public class SeenSummarySessionImpl extends TrSessionImpl implements SeenSummarySession {
+
+	public SeenSummarySessionImpl(final Integer sessionId, final TrNode node, final TrSessionManager sessionMgr) {
+		super(sessionId, node, sessionMgr);
+	}
+
+	public void sendSummary(final PhysicalNetworkLocation peer, final TrBloomFilter summary) {
+		final SeenSummarySession peerSess = remoteSession(SeenSummarySession.class, connection(peer));
+		peerSess.seenSummaryIs(summary);
+	}
+
+	public void seenSummaryIs(final TrBloomFilter summary) {
+		node.mbClasses.seenSummaries.received(sender(), summary);
+	}
+}
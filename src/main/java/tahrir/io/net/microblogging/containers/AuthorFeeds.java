@@ -0,0 +1,112 @@
+package tahrir.io.net.microblogging.containers;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import tahrir.TrConstants;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * The recent part of each author's feed that we hold. Each microblog in a
+ * feed carries its sequence number and the SHA-256 feed hash of the one
+ * before it, both signed by the author, so we can tell when we have an
+ * unbroken run of an author's microblogs and ask a peer for just those after
+ * it.
+ */
+public class AuthorFeeds {
+	private final Map<RSAPublicKey, TreeMap<Long, BroadcastMicroblog>> feeds;
+
+	private final int maxLength;
+
+	public AuthorFeeds() {
+		this(TrConstants.FEED_MAX_AUTHORS, TrConstants.FEED_MAX_LENGTH);
+	}
+
+	public AuthorFeeds(final int maxAuthors, final int maxLength) {
+		this.maxLength = maxLength;
+		feeds = CacheBuilder.newBuilder().maximumSize(maxAuthors)
+				.<RSAPublicKey, TreeMap<Long, BroadcastMicroblog>>build().asMap();
+	}
+
+	/**
+	 * @return False if the microblog isn't part of a feed, isn't properly
+	 *         signed, or doesn't link up with its neighbours
+	 */
+	public boolean add(final BroadcastMicroblog mb) {
+		if (mb.otherData == null || mb.otherData.getSequence() <= 0)
+			return false;
+		// Checked outside the lock as it is relatively slow
+		if (!mb.isSignatureValid())
+			return false;
+		final long sequence = mb.otherData.getSequence();
+		synchronized (this) {
+			TreeMap<Long, BroadcastMicroblog> feed = feeds.get(mb.otherData.getAuthorPubKey());
+			if (feed == null) {
+				feed = new TreeMap<Long, BroadcastMicroblog>();
+				feeds.put(mb.otherData.getAuthorPubKey(), feed);
+			}
+			if (feed.containsKey(sequence))
+				return false;
+			final BroadcastMicroblog previous = feed.get(sequence - 1);
+			if (previous != null && !links(previous, mb))
+				return false;
+			final BroadcastMicroblog next = feed.get(sequence + 1);
+			if (next != null && !links(mb, next))
+				return false;
+			feed.put(sequence, mb);
+			while (feed.size() > maxLength) {
+				feed.pollFirstEntry();
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * @return The sequence number of the last microblog in the unbroken run
+	 *         starting from the earliest we hold, or 0 if we hold none
+	 */
+	public synchronized long getLatestSequence(final RSAPublicKey author) {
+		final TreeMap<Long, BroadcastMicroblog> feed = feeds.get(author);
+		if (feed == null || feed.isEmpty())
+			return 0;
+		BroadcastMicroblog last = null;
+		for (final BroadcastMicroblog mb : feed.values()) {
+			if (last != null && !links(last, mb)) {
+				break;
+			}
+			last = mb;
+		}
+		return last.otherData.getSequence();
+	}
+
+	/**
+	 * @return Up to max of the author's microblogs from fromSequence onwards,
+	 *         stopping at the first gap
+	 */
+	public synchronized ArrayList<BroadcastMicroblog> getFrom(final RSAPublicKey author, final long fromSequence,
+			final int max) {
+		final ArrayList<BroadcastMicroblog> result = new ArrayList<BroadcastMicroblog>();
+		final TreeMap<Long, BroadcastMicroblog> feed = feeds.get(author);
+		if (feed == null)
+			return result;
+		BroadcastMicroblog last = null;
+		for (final BroadcastMicroblog mb : feed.tailMap(fromSequence).values()) {
+			if (result.size() >= max || last != null && !links(last, mb)) {
+				break;
+			}
+			result.add(mb);
+			last = mb;
+		}
+		return result;
+	}
+
+	private static boolean links(final BroadcastMicroblog previous, final BroadcastMicroblog next) {
+		return next.otherData.getSequence() == previous.otherData.getSequence() + 1
+				&& Arrays.equals(next.otherData.getPreviousHash(), previous.getFeedHash());
+	}
+}
@@ -0,0 +1,22 @@
+package tahrir.io.net.microblogging.containers;
+
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+
+/**
+ * Decides the order in which {@link MicroblogsForBroadcast} hands out
+ * microblogs and when they expire.
+ */
+public interface BroadcastPolicy {
+	/**
+	 * Microblogs with lower keys are broadcast first. The key is worked out
+	 * once, when the microblog is queued, so any decay over time must be the
+	 * same for every microblog and is expressed by offsetting the key by its
+	 * creation time.
+	 */
+	public double getSortKey(BroadcastMicroblog mb);
+
+	/**
+	 * @return When the microblog should leave the queue, in milliseconds
+	 */
+	public long getExpiryTime(BroadcastMicroblog mb);
+}
@@ -0,0 +1,41 @@
+package tahrir.io.net.microblogging.containers;
+
+import tahrir.TrConstants;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+
+/**
+ * Priority gets worse the older a microblog is and the further it has
+ * travelled, so fresh content goes first. Microblogs expire after a fixed
+ * time or number of hops.
+ *
+ * The creation time is whatever the sender says it is, so a microblog from
+ * further in the future than clocks might differ by expires straight away,
+ * and one from a little in the future is treated as brand new, so that
+ * nobody can jump the queue or outstay the TTL by post-dating.
+ */
+public class DecayingBroadcastPolicy implements BroadcastPolicy {
+	private static final double MS_PER_MINUTE = 60 * 1000;
+
+	public double getSortKey(final BroadcastMicroblog mb) {
+		// priority + age * decay, less the part of the age which is the same
+		// for every microblog
+		return mb.priority + Math.max(0, mb.hops) * TrConstants.BROADCAST_PRIORITY_DECAY_PER_HOP - getTimeCreated(mb)
+				/ MS_PER_MINUTE * TrConstants.BROADCAST_PRIORITY_DECAY_PER_MINUTE;
+	}
+
+	public long getExpiryTime(final BroadcastMicroblog mb) {
+		if (mb.hops > TrConstants.BROADCAST_MAX_HOPS)
+			return 0;
+		if (mb.otherData != null
+				&& mb.otherData.getTimeCreated() > System.currentTimeMillis()
+						+ TrConstants.BROADCAST_MAX_CLOCK_SKEW_MINUTES * 60l * 1000)
+			return 0;
+		return getTimeCreated(mb) + TrConstants.BROADCAST_TTL_MINUTES * 60l * 1000;
+	}
+
+	private static long getTimeCreated(final BroadcastMicroblog mb) {
+		final long now = System.currentTimeMillis();
+		// Test microblogs may have no creation time
+		return mb.otherData != null ? Math.min(mb.otherData.getTimeCreated(), now) : now;
+	}
+}
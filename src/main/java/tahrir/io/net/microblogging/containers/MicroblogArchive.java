@@ -0,0 +1,221 @@
+package tahrir.io.net.microblogging.containers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import tahrir.TrConstants;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+
+import com.google.common.collect.Maps;
+
+/**
+ * The microblogs we've seen recently, grouped into buckets by when they were
+ * created, so that a peer which has been away can find out what it missed.
+ *
+ * Each bucket has a digest, the XOR of the hashes of its microblogs, so two
+ * nodes can tell which buckets differ by swapping one long per bucket. Each
+ * bucket is also split by hash into
+ * {@link TrConstants#MICROBLOG_ARCHIVE_SLICES} slices with digests of their
+ * own, so that a bucket which differs can be narrowed down to the slices
+ * which do before any hashes are swapped. A slice is identified by its
+ * bucket number times the number of slices, plus its index in the bucket.
+ */
+public class MicroblogArchive {
+	private final TreeMap<Long, Bucket> buckets = new TreeMap<Long, Bucket>();
+
+	private final Map<Long, BroadcastMicroblog> byHash = Maps.newHashMap();
+
+	private final int bucketCount;
+
+	private final int maxPerBucket;
+
+	public MicroblogArchive() {
+		this(TrConstants.MICROBLOG_ARCHIVE_BUCKETS, TrConstants.MICROBLOG_ARCHIVE_MAX_PER_BUCKET);
+	}
+
+	public MicroblogArchive(final int bucketCount, final int maxPerBucket) {
+		this.bucketCount = bucketCount;
+		this.maxPerBucket = maxPerBucket;
+	}
+
+	public static long bucketOf(final long timeMs) {
+		return timeMs / (TrConstants.MICROBLOG_ARCHIVE_BUCKET_MINUTES * 60l * 1000);
+	}
+
+	public long getCurrentBucket() {
+		return bucketOf(System.currentTimeMillis());
+	}
+
+	/**
+	 * The oldest bucket we keep
+	 */
+	public long getFirstBucket() {
+		return getCurrentBucket() - bucketCount + 1;
+	}
+
+	public int getBucketCount() {
+		return bucketCount;
+	}
+
+	/**
+	 * @return False if we already have the microblog, it is too old or from
+	 *         the future, or its bucket is full
+	 */
+	public synchronized boolean add(final BroadcastMicroblog mb) {
+		prune();
+		final long hash = mb.getDedupHash();
+		if (byHash.containsKey(hash))
+			return false;
+		// Test microblogs may have no creation time
+		final long bucketNo = bucketOf(mb.otherData != null ? mb.otherData.getTimeCreated() : System.currentTimeMillis());
+		if (bucketNo < getFirstBucket() || bucketNo > getCurrentBucket())
+			return false;
+		Bucket bucket = buckets.get(bucketNo);
+		if (bucket == null) {
+			bucket = new Bucket();
+			buckets.put(bucketNo, bucket);
+		}
+		if (bucket.hashes.size() >= maxPerBucket)
+			return false;
+		bucket.hashes.add(hash);
+		bucket.digest ^= hash;
+		bucket.sliceDigests[sliceOf(hash)] ^= hash;
+		byHash.put(hash, mb);
+		return true;
+	}
+
+	public synchronized boolean contains(final long mbHash) {
+		return byHash.containsKey(mbHash);
+	}
+
+	/**
+	 * @return The microblog, or null if we don't have it
+	 */
+	public synchronized BroadcastMicroblog get(final long mbHash) {
+		return byHash.get(mbHash);
+	}
+
+	public synchronized ArrayList<Long> getDigests(final long firstBucket, final int count) {
+		final ArrayList<Long> digests = new ArrayList<Long>(count);
+		for (long bucketNo = firstBucket; bucketNo < firstBucket + count; bucketNo++) {
+			final Bucket bucket = buckets.get(bucketNo);
+			digests.add(bucket == null ? 0l : bucket.digest);
+		}
+		return digests;
+	}
+
+	/**
+	 * Compare a peer's digests with ours. The peer chooses where they start
+	 * and how many there are, so only buckets we keep are compared, and more
+	 * digests than we keep buckets are ignored altogether.
+	 *
+	 * @return The buckets whose digests differ from ours
+	 */
+	public synchronized ArrayList<Long> getDifferingBuckets(final long firstBucket, final List<Long> digests) {
+		final ArrayList<Long> differing = new ArrayList<Long>();
+		if (digests == null || digests.size() > bucketCount)
+			return differing;
+		final long from = Math.max(firstBucket, getFirstBucket());
+		final long to = Math.min(firstBucket + digests.size() - 1, getCurrentBucket());
+		for (long bucketNo = from; bucketNo <= to; bucketNo++) {
+			final Bucket bucket = buckets.get(bucketNo);
+			final Long theirs = digests.get((int) (bucketNo - firstBucket));
+			if (theirs != null && theirs != (bucket == null ? 0l : bucket.digest)) {
+				differing.add(bucketNo);
+			}
+		}
+		return differing;
+	}
+
+	/**
+	 * @return The digests of every slice of each bucket in turn
+	 */
+	public synchronized ArrayList<Long> getSliceDigests(final List<Long> bucketNos) {
+		final ArrayList<Long> digests = new ArrayList<Long>(bucketNos.size() * TrConstants.MICROBLOG_ARCHIVE_SLICES);
+		for (final Long bucketNo : bucketNos) {
+			final Bucket bucket = buckets.get(bucketNo);
+			for (int slice = 0; slice < TrConstants.MICROBLOG_ARCHIVE_SLICES; slice++) {
+				digests.add(bucket == null ? 0l : bucket.sliceDigests[slice]);
+			}
+		}
+		return digests;
+	}
+
+	/**
+	 * Compare a peer's slice digests, as from {@link #getSliceDigests(List)},
+	 * with ours. As with buckets, only buckets we keep are compared, and a
+	 * list which doesn't fit the buckets or is longer than we'd send is
+	 * ignored altogether.
+	 *
+	 * @return The slices whose digests differ from ours
+	 */
+	public synchronized ArrayList<Long> getDifferingSlices(final List<Long> bucketNos, final List<Long> sliceDigests) {
+		final ArrayList<Long> differing = new ArrayList<Long>();
+		if (bucketNos == null || sliceDigests == null || bucketNos.size() > bucketCount
+				|| sliceDigests.size() != bucketNos.size() * TrConstants.MICROBLOG_ARCHIVE_SLICES)
+			return differing;
+		for (int x = 0; x < bucketNos.size(); x++) {
+			final Long bucketNo = bucketNos.get(x);
+			if (bucketNo == null || bucketNo < getFirstBucket() || bucketNo > getCurrentBucket()) {
+				continue;
+			}
+			final Bucket bucket = buckets.get(bucketNo);
+			for (int slice = 0; slice < TrConstants.MICROBLOG_ARCHIVE_SLICES; slice++) {
+				final Long theirs = sliceDigests.get(x * TrConstants.MICROBLOG_ARCHIVE_SLICES + slice);
+				if (theirs != null && theirs != (bucket == null ? 0l : bucket.sliceDigests[slice])) {
+					differing.add(bucketNo * TrConstants.MICROBLOG_ARCHIVE_SLICES + slice);
+				}
+			}
+		}
+		return differing;
+	}
+
+	/**
+	 * @return The hashes of the microblogs in the slices, ignoring any slices
+	 *         of buckets we don't have, and every slice if asked for more than
+	 *         we keep
+	 */
+	public synchronized ArrayList<Long> getSliceHashes(final Collection<Long> slices) {
+		final ArrayList<Long> hashes = new ArrayList<Long>();
+		if (slices == null || slices.size() > bucketCount * TrConstants.MICROBLOG_ARCHIVE_SLICES)
+			return hashes;
+		for (final Long slice : slices) {
+			if (slice == null || slice < 0) {
+				continue;
+			}
+			final Bucket bucket = buckets.get(slice / TrConstants.MICROBLOG_ARCHIVE_SLICES);
+			if (bucket == null) {
+				continue;
+			}
+			for (final Long hash : bucket.hashes) {
+				if (sliceOf(hash) == slice % TrConstants.MICROBLOG_ARCHIVE_SLICES) {
+					hashes.add(hash);
+				}
+			}
+		}
+		return hashes;
+	}
+
+	private static int sliceOf(final long hash) {
+		return (int) ((hash >>> 1) % TrConstants.MICROBLOG_ARCHIVE_SLICES);
+	}
+
+	private void prune() {
+		final Map<Long, Bucket> expired = buckets.headMap(getFirstBucket());
+		for (final Bucket bucket : expired.values()) {
+			for (final Long hash : bucket.hashes) {
+				byHash.remove(hash);
+			}
+		}
+		expired.clear();
+	}
+
+	private static class Bucket {
+		private final ArrayList<Long> hashes = new ArrayList<Long>();
+		private long digest = 0;
+		private final long[] sliceDigests = new long[TrConstants.MICROBLOG_ARCHIVE_SLICES];
+	}
+}
@@ -1,59 +1,178 @@
 package tahrir.io.net.microblogging.containers;
 
-import com.google.common.collect.Sets;
+import tahrir.TrConstants;
 import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+import tahrir.tools.TrBloomFilter;
 
 import java.util.Comparator;
-import java.util.PriorityQueue;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Microblogs waiting to be broadcast, in the order given by a
+ * {@link BroadcastPolicy} and newest first among equals. Once full the last
+ * microblog in that order is dropped to make room, and microblogs past their
+ * expiry time are dropped rather than handed out.
+ *
+ * Entries are kept in a skip list ordered by priority alongside an index by
+ * microblog, so lookups never block and changing a priority is O(log n).
+ */
 public class MicroblogsForBroadcast {
-	private final PriorityQueue<BroadcastMicroblog> microblogBroadcastQueue;
-	private final Set<Integer> seen;
+	private final ConcurrentSkipListSet<Entry> queue = new ConcurrentSkipListSet<Entry>(new EntryComparator());
+	private final Map<BroadcastMicroblog, Entry> index = new ConcurrentHashMap<BroadcastMicroblog, Entry>();
+	private final RecentlySeenFilter seen;
+	private final AtomicLong nextSequence = new AtomicLong();
+	private final int capacity;
+	private final BroadcastPolicy policy;
+	private final List<Runnable> insertionListeners = new CopyOnWriteArrayList<Runnable>();
+
+	/**
+	 * Held while changing the queue and index together; readers don't need it
+	 */
+	private final Object writeLock = new Object();
 
 	public MicroblogsForBroadcast() {
-		microblogBroadcastQueue = new PriorityQueue<BroadcastMicroblog>(100, new MicroblogPriorityComparator());
-		seen = Sets.newLinkedHashSet();
+		this(TrConstants.MAX_MICROBLOGS_FOR_BROADCAST, new DecayingBroadcastPolicy());
+	}
+
+	public MicroblogsForBroadcast(final int capacity, final BroadcastPolicy policy) {
+		this.capacity = capacity;
+		this.policy = policy;
+		seen = new RecentlySeenFilter();
+	}
+
+	public BroadcastMicroblog getMicroblogForBroadcast() {
+		final long now = System.currentTimeMillis();
+		synchronized (writeLock) {
+			while (true) {
+				final Entry first = queue.pollFirst();
+				if (first == null)
+					return null;
+				index.remove(first.mb);
+				if (first.expiryTime > now)
+					return first.mb;
+			}
+		}
 	}
 
-	public synchronized BroadcastMicroblog getMicroblogForBroadcast() {
-		return microblogBroadcastQueue.poll();
+	public void changeBroadcastPriority(final BroadcastMicroblog mb, final int priority) {
+		synchronized (writeLock) {
+			mb.priority = priority;
+			final Entry old = index.get(mb);
+			if (old == null)
+				return;
+			queue.remove(old);
+			final Entry changed = new Entry(old.mb, policy.getSortKey(old.mb), old.expiryTime, old.sequence);
+			queue.add(changed);
+			index.put(old.mb, changed);
+		}
 	}
 
-	public synchronized void changeBroadcastPriority(final BroadcastMicroblog mb, final int priority) {
-		microblogBroadcastQueue.remove(mb);
-		mb.priority = priority;
-		microblogBroadcastQueue.add(mb);
+	/**
+	 * @param listener Run whenever a microblog is queued
+	 */
+	public void registerInsertionListener(final Runnable listener) {
+		insertionListeners.add(listener);
 	}
 
-	public synchronized boolean isLikelyToContain(final int microblogHash) {
-		return seen.contains(microblogHash);
+	public boolean isLikelyToContain(final long microblogHash) {
+		return seen.mightContain(microblogHash);
 	}
 
-	public synchronized boolean contains(final BroadcastMicroblog mb) {
-		return microblogBroadcastQueue.contains(mb);
+	/**
+	 * @return A summary of the microblogs we've seen recently, for our peers
+	 *         to check before offering us microblogs
+	 */
+	public TrBloomFilter getSeenSummary() {
+		return seen.getSummary();
 	}
 
-	public synchronized boolean insert(final BroadcastMicroblog mb) {
-		final boolean inserted = false;
+	public boolean contains(final BroadcastMicroblog mb) {
+		return index.containsKey(mb);
+	}
+
+	public int size() {
+		return index.size();
+	}
 
-		seen.add(mb.hashCode());
-		// this check probably isn't necessary but just to be sure...
-		if (!microblogBroadcastQueue.contains(mb)) {
-			// TODO: it doesn't check the size of the queue, it may get too big
-			microblogBroadcastQueue.add(mb);
+	/**
+	 * @return False if the microblog was already queued, has expired, or was
+	 *         dropped straight away because we're full of higher priority
+	 *         microblogs
+	 */
+	public boolean insert(final BroadcastMicroblog mb) {
+		// Fast tier hash, only used to avoid re-requesting microblogs we have
+		seen.put(mb.getDedupHash());
+		final boolean inserted;
+		synchronized (writeLock) {
+			inserted = add(mb);
+		}
+		if (inserted) {
+			for (final Runnable listener : insertionListeners) {
+				listener.run();
+			}
 		}
 		return inserted;
 	}
 
-	public synchronized boolean remove(final BroadcastMicroblog mb) {
-		return microblogBroadcastQueue.remove(mb);
+	private boolean add(final BroadcastMicroblog mb) {
+		if (index.containsKey(mb))
+			return false;
+		final long expiryTime = policy.getExpiryTime(mb);
+		if (expiryTime <= System.currentTimeMillis())
+			return false;
+		final Entry entry = new Entry(mb, policy.getSortKey(mb), expiryTime, nextSequence.getAndIncrement());
+		queue.add(entry);
+		index.put(mb, entry);
+		boolean added = true;
+		while (index.size() > capacity) {
+			final Entry evicted = queue.pollLast();
+			index.remove(evicted.mb);
+			if (evicted == entry) {
+				added = false;
+			}
+		}
+		return added;
+	}
+
+	public boolean remove(final BroadcastMicroblog mb) {
+		synchronized (writeLock) {
+			final Entry entry = index.remove(mb);
+			return entry != null && queue.remove(entry);
+		}
+	}
+
+	/**
+	 * The sort key is worked out up front as the skip list's ordering mustn't
+	 * change while the entry is in it
+	 */
+	private static class Entry {
+		private final BroadcastMicroblog mb;
+		private final double sortKey;
+		private final long expiryTime;
+		private final long sequence;
+
+		public Entry(final BroadcastMicroblog mb, final double sortKey, final long expiryTime, final long sequence) {
+			this.mb = mb;
+			this.sortKey = sortKey;
+			this.expiryTime = expiryTime;
+			this.sequence = sequence;
+		}
 	}
 
-	private class MicroblogPriorityComparator implements Comparator<BroadcastMicroblog> {
+	private static class EntryComparator implements Comparator<Entry> {
 		@Override
-		public int compare(final BroadcastMicroblog mb1, final BroadcastMicroblog mb2) {
-			return Double.compare(mb1.priority, mb2.priority);
+		public int compare(final Entry e1, final Entry e2) {
+			final int byKey = Double.compare(e1.sortKey, e2.sortKey);
+			if (byKey != 0)
+				return byKey;
+			if (e1.sequence != e2.sequence)
+				return e1.sequence > e2.sequence ? -1 : 1;
+			return 0;
 		}
 	}
-}
\ No newline at end of file
+}
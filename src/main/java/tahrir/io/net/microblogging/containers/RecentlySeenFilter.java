@@ -0,0 +1,87 @@
+package tahrir.io.net.microblogging.containers;
+
+import java.util.LinkedList;
+
+import tahrir.TrConstants;
+import tahrir.tools.TrBloomFilter;
+
+/**
+ * The hashes of microblogs seen recently, kept in a Bloom filter per time
+ * window. Once there are enough windows the oldest is dropped, so memory use
+ * stays bounded however many microblogs we see.
+ */
+public class RecentlySeenFilter {
+	private final LinkedList<TrBloomFilter> windows = new LinkedList<TrBloomFilter>();
+
+	private final int windowCount;
+
+	private final int expectedPerWindow;
+
+	private final double falsePositiveProbability;
+
+	private final long windowMs;
+
+	private long currentWindowStarted;
+
+	public RecentlySeenFilter() {
+		this(TrConstants.SEEN_FILTER_WINDOWS, TrConstants.SEEN_FILTER_WINDOW_MINUTES * 60l * 1000,
+				TrConstants.SEEN_FILTER_EXPECTED_PER_WINDOW, TrConstants.SEEN_FILTER_FALSE_POSITIVE_PROBABILITY);
+	}
+
+	public RecentlySeenFilter(final int windowCount, final long windowMs, final int expectedPerWindow,
+			final double falsePositiveProbability) {
+		this.windowCount = windowCount;
+		this.windowMs = windowMs;
+		this.expectedPerWindow = expectedPerWindow;
+		this.falsePositiveProbability = falsePositiveProbability;
+		startWindow();
+	}
+
+	public synchronized void put(final long hash) {
+		rotateIfDue();
+		windows.getFirst().put(hash);
+	}
+
+	public synchronized boolean mightContain(final long hash) {
+		rotateIfDue();
+		for (final TrBloomFilter window : windows) {
+			if (window.mightContain(hash))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return A single filter of everything in every window, small enough to
+	 *         send to our peers
+	 */
+	public synchronized TrBloomFilter getSummary() {
+		rotateIfDue();
+		final TrBloomFilter summary = windows.getFirst().copy();
+		for (final TrBloomFilter window : windows) {
+			summary.putAll(window);
+		}
+		return summary;
+	}
+
+	/**
+	 * Start a new window now, dropping the oldest if we have enough
+	 */
+	public synchronized void rotate() {
+		startWindow();
+		while (windows.size() > windowCount) {
+			windows.removeLast();
+		}
+	}
+
+	private void rotateIfDue() {
+		if (System.currentTimeMillis() - currentWindowStarted >= windowMs) {
+			rotate();
+		}
+	}
+
+	private void startWindow() {
+		windows.addFirst(TrBloomFilter.create(expectedPerWindow, falsePositiveProbability));
+		currentWindowStarted = System.currentTimeMillis();
+	}
+}
@@ -1,9 +1,23 @@
 package tahrir.io.net.microblogging.microblogs;
 
+import java.security.interfaces.RSAPublicKey;
+
+import nu.xom.ParsingException;
+
 import tahrir.TrConstants;
 import tahrir.TrNode;
+import tahrir.TrNode.PrivateNodeId;
 import tahrir.io.crypto.TrCrypto;
+import tahrir.io.crypto.TrHash;
 import tahrir.io.crypto.TrSignature;
+import tahrir.io.net.microblogging.MicroblogCompressor;
+import tahrir.io.net.microblogging.MicroblogCompressor.KnownKeys;
+import tahrir.tools.ByteArraySegment;
+import tahrir.tools.Persistence.Modified;
+import tahrir.tools.Persistence.ModifyBlock;
+import tahrir.tools.TrFastHash;
+
+import com.google.common.base.Charsets;
 
 /**
  * A microblog for broadcast.
@@ -12,13 +26,28 @@ import tahrir.io.crypto.TrSignature;
  */
 public class BroadcastMicroblog {
 	public int priority;
+	/**
+	 * How many times the microblog has been passed on, not signed as it
+	 * changes along the way
+	 */
+	public int hops;
 	public GeneralMicroblogInfo otherData;
 	/**
 	 * Message is the microblog in an XML format.
 	 */
 	public String message;
+	/**
+	 * The message in the {@link MicroblogCompressor} encoding, sent instead
+	 * of the XML if we've opted to compress microblogs
+	 */
+	public ByteArraySegment compressedMessage;
 	public TrSignature signature;
 
+	private transient long dedupHash;
+	private transient boolean dedupHashComputed = false;
+
+	private transient byte[] feedHash;
+
 	// for serialization
 	public BroadcastMicroblog() {
 
@@ -28,16 +57,28 @@ public class BroadcastMicroblog {
 		this(creatingNode, message, TrConstants.BROADCAST_INIT_PRIORITY);
 	}
 
+	/**
+	 * Creates the next microblog in the node's own feed, chained to the last.
+	 */
 	public BroadcastMicroblog(final TrNode creatingNode, final String message, final int priority) {
-		// TODO: get info from config
-		otherData = new GeneralMicroblogInfo("", "", creatingNode.getRemoteNodeAddress().publicKey, System.currentTimeMillis());
 		this.priority = priority;
 		this.message = message;
-		try {
-			signature = TrCrypto.sign(message, creatingNode.getPrivateNodeId().privateKey);
-		} catch (final Exception e) {
-			throw new RuntimeException(e);
-		}
+		final RSAPublicKey authorPubKey = creatingNode.getRemoteNodeAddress().publicKey;
+		creatingNode.modifyPrivateNodeId(new ModifyBlock<PrivateNodeId>() {
+
+			public void run(final PrivateNodeId privateNodeId, final Modified modified) {
+				// TODO: get info from config
+				otherData = new GeneralMicroblogInfo("", "", authorPubKey, System.currentTimeMillis(),
+						privateNodeId.lastMicroblogSequence + 1, privateNodeId.lastMicroblogHash);
+				try {
+					signature = TrCrypto.sign(getSignedContent(), privateNodeId.privateKey);
+				} catch (final Exception e) {
+					throw new RuntimeException(e);
+				}
+				privateNodeId.lastMicroblogSequence = otherData.getSequence();
+				privateNodeId.lastMicroblogHash = getFeedHash();
+			}
+		});
 	}
 
 	/**
@@ -52,12 +93,96 @@ public class BroadcastMicroblog {
 		this.signature = null;
 	}
 
+	/**
+	 * @param fullKeys Whether to write mentioned keys out in full, see
+	 *        {@link MicroblogCompressor#compress(String, boolean)}
+	 * @return A copy to send in place of this microblog with its message
+	 *         compressed, or this microblog if the message can't be
+	 */
+	public BroadcastMicroblog toCompressed(final boolean fullKeys) {
+		final ByteArraySegment compressed = MicroblogCompressor.compress(message, fullKeys);
+		if (compressed == null)
+			return this;
+		final BroadcastMicroblog copy = new BroadcastMicroblog();
+		copy.priority = priority;
+		copy.hops = hops;
+		copy.otherData = otherData;
+		copy.compressedMessage = compressed;
+		copy.signature = signature;
+		return copy;
+	}
+
+	/**
+	 * Restore the XML message of a microblog that was received compressed,
+	 * which must be done before anything else is done with it
+	 *
+	 * @throws MicroblogCompressor.UnknownKeyException If it mentions a key by
+	 *         an id we don't know
+	 */
+	public void decompress(final KnownKeys knownKeys) throws ParsingException {
+		if (compressedMessage == null)
+			return;
+		message = MicroblogCompressor.decompress(compressedMessage, knownKeys);
+		compressedMessage = null;
+	}
+
+	/**
+	 * @return True if the microblog was signed by its author, which also
+	 *         vouches for its place in the author's feed
+	 */
+	public boolean isSignatureValid() {
+		if (signature == null || otherData == null || otherData.getAuthorPubKey() == null)
+			return false;
+		try {
+			return TrCrypto.verify(signature, getSignedContent(), otherData.getAuthorPubKey());
+		} catch (final Exception e) {
+			return false;
+		}
+	}
+
+	private SignedContent getSignedContent() {
+		final SignedContent content = new SignedContent();
+		content.message = message;
+		content.sequence = otherData.getSequence();
+		content.previousHash = otherData.getPreviousHash();
+		return content;
+	}
+
+	/**
+	 * A fast (non-cryptographic) 64-bit hash identifying this microblog, used
+	 * to deduplicate microblogs in memory and when asking peers whether they
+	 * already have one. It is never used to decide whether a microblog is
+	 * authentic, that is what the signature is for.
+	 */
+	public long getDedupHash() {
+		if (!dedupHashComputed) {
+			dedupHash = signature != null ? TrFastHash.hash64(signature.signature) : TrFastHash.hash64(message
+					.getBytes(Charsets.UTF_8));
+			dedupHashComputed = true;
+		}
+		return dedupHash;
+	}
+
+	/**
+	 * A SHA-256 digest of what the author signed, which the next microblog in
+	 * the author's feed carries as its previous hash. Unlike the dedup hash
+	 * this can't be forged, so neither can the order of the feed.
+	 */
+	public byte[] getFeedHash() {
+		if (feedHash == null) {
+			try {
+				feedHash = new TrHash(getSignedContent(), TrConstants.DEFAULT_BAOS_SIZE).hash;
+			} catch (final Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+		return feedHash;
+	}
+
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((signature == null) ? 0 : signature.hashCode());
-		return result;
+		final long h = getDedupHash();
+		return (int) (h ^ (h >>> 32));
 	}
 
 	@Override
@@ -70,10 +195,27 @@ public class BroadcastMicroblog {
 			return false;
 		final BroadcastMicroblog other = (BroadcastMicroblog) obj;
 		if (signature == null) {
-			if (signature != null)
+			// Unsigned microblogs only exist in tests, identify them by message
+			if (other.signature != null)
 				return false;
-		} else if (!signature.equals(signature))
+			return message == null ? other.message == null : message.equals(other.message);
+		} else if (!signature.equals(other.signature))
 			return false;
 		return true;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * What the author signs, so that nobody can move a microblog to another
+	 * place in the author's feed
+	 */
+	public static class SignedContent {
+		public String message;
+		public long sequence;
+		public byte[] previousHash;
+
+		// for serialization
+		public SignedContent() {
+
+		}
+	}
+}
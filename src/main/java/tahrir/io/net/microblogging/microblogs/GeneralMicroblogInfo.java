@@ -1,6 +1,7 @@
 package tahrir.io.net.microblogging.microblogs;
 
 import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
 
 /**
  * Holds common state for broadcast and parsed microblogs.
@@ -9,10 +10,27 @@ import java.security.interfaces.RSAPublicKey;
  */
 
 public class GeneralMicroblogInfo {
-	private final String languageCode;
-	private final String authorNick;
-	private final RSAPublicKey authorPubKey;
-	private final long timeCreated;
+	private String languageCode;
+	private String authorNick;
+	private RSAPublicKey authorPubKey;
+	private long timeCreated;
+	/**
+	 * The position of the microblog in its author's feed, starting from 1, or
+	 * 0 if it isn't part of one
+	 */
+	private long sequence;
+	/**
+	 * The feed hash of the previous microblog in the author's feed, or null
+	 * for the first
+	 *
+	 * @see BroadcastMicroblog#getFeedHash()
+	 */
+	private byte[] previousHash;
+
+	// for serialization
+	public GeneralMicroblogInfo() {
+
+	}
 
 	public GeneralMicroblogInfo(final String languageCode, final String authorNick,
 			final RSAPublicKey authorPubKey, final long timeCreated) {
@@ -22,6 +40,13 @@ public class GeneralMicroblogInfo {
 		this.timeCreated = timeCreated;
 	}
 
+	public GeneralMicroblogInfo(final String languageCode, final String authorNick,
+			final RSAPublicKey authorPubKey, final long timeCreated, final long sequence, final byte[] previousHash) {
+		this(languageCode, authorNick, authorPubKey, timeCreated);
+		this.sequence = sequence;
+		this.previousHash = previousHash;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
@@ -30,6 +55,8 @@ public class GeneralMicroblogInfo {
 		result = prime * result + ((languageCode == null) ? 0 : languageCode.hashCode());
 		result = prime * result + ((authorPubKey == null) ? 0 : authorPubKey.hashCode());
 		result = prime * result + (int) (timeCreated ^ (timeCreated >>> 32));
+		result = prime * result + (int) (sequence ^ (sequence >>> 32));
+		result = prime * result + Arrays.hashCode(previousHash);
 		return result;
 	}
 
@@ -59,6 +86,10 @@ public class GeneralMicroblogInfo {
 			return false;
 		if (timeCreated != other.timeCreated)
 			return false;
+		if (sequence != other.sequence)
+			return false;
+		if (!Arrays.equals(previousHash, other.previousHash))
+			return false;
 		return true;
 	}
 
@@ -77,4 +108,12 @@ public class GeneralMicroblogInfo {
 	public long getTimeCreated() {
 		return timeCreated;
 	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public byte[] getPreviousHash() {
+		return previousHash;
+	}
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package tahrir.io.net.sessions;
 
 import java.security.interfaces.RSAPublicKey;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.*;
 
@@ -33,13 +34,26 @@ public class AssimilateSessionImpl extends TrSessionImpl implements AssimilateSe
 
 	private RSAPublicKey joinerPublicKey;
 
+	private volatile boolean cancelled = false;
+	private final AtomicBoolean finished = new AtomicBoolean(false);
+	private Runnable onFinished = TrUtils.noopRunnable;
+
 	public AssimilateSessionImpl(final Integer sessionId, final TrNode node, final TrSessionManager sessionMgr) {
 		super(sessionId, node, sessionMgr);
 		logger = LoggerFactory.getLogger(AssimilateSessionImpl.class.getName()+" ("+sessionId+")");
 	}
 
 	public void startAssimilation(final Runnable onFailure, final TrPeerInfo assimilateVia) {
+		startAssimilation(onFailure, assimilateVia, TrUtils.noopRunnable);
+	}
+
+	/**
+	 * @param onFinished Run once when this assimilation has either been
+	 *        accepted, timed out or been cancelled
+	 */
+	public void startAssimilation(final Runnable onFailure, final TrPeerInfo assimilateVia, final Runnable onFinished) {
 		logger.debug("Start assimilation via "+assimilateVia);
+		this.onFinished = onFinished;
 		relay = assimilateVia;
 		requestNewConnectionTime = System.currentTimeMillis();
 		requestNewConnectionFuture = TrUtils.executor.schedule(new AssimilationFailureChecker(), RELAY_ASSIMILATION_TIMEOUT_SECONDS, TimeUnit.SECONDS);
@@ -49,6 +63,29 @@ public class AssimilateSessionImpl extends TrSessionImpl implements AssimilateSe
 		pubNodeSession.requestNewConnection(node.getRemoteNodeAddress().publicKey);
 	}
 
+	/**
+	 * Stop waiting for a locally initiated assimilation, we no longer need it.
+	 * If it is accepted anyway the new peer will still be added.
+	 */
+	public void cancel() {
+		logger.debug("Cancelling assimilation via {}", relay);
+		cancelled = true;
+		if (requestNewConnectionFuture != null) {
+			requestNewConnectionFuture.cancel(false);
+		}
+		finished();
+	}
+
+	public boolean isFinished() {
+		return finished.get();
+	}
+
+	private void finished() {
+		if (finished.compareAndSet(false, true)) {
+			onFinished.run();
+		}
+	}
+
 	public void yourAddressIs(final PhysicalNetworkLocation address) {
 		if (!locallyInitiated) {
 			logger.warn("Received yourAddressIs() from {}, yet this AssimilateSession was not locally initiated",
@@ -183,6 +220,7 @@ public class AssimilateSessionImpl extends TrSessionImpl implements AssimilateSe
 				node.peerManager.addNewPeer(new RemoteNodeAddress(acceptorPhysicalLocation,
 						acceptorPubkey), acceptorCapabilities, acceptorLocation);
 			}
+			finished();
 		}
 	}
 
@@ -214,6 +252,11 @@ public class AssimilateSessionImpl extends TrSessionImpl implements AssimilateSe
 
 	private class AssimilationFailureChecker implements Runnable {
 		public void run() {
+			if (locallyInitiated) {
+				finished();
+			}
+			if (cancelled)
+				return;
 			node.peerManager.updatePeerInfo(relay.remoteNodeAddress.physicalLocation, new Function<TrPeerManager.TrPeerInfo, Void>() {
 
 				public Void apply(final TrPeerInfo tpi) {
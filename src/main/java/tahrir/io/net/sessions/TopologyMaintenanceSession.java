@@ -5,14 +5,23 @@ import java.util.LinkedList;
 import tahrir.TrConstants;
 import tahrir.io.net.*;
 import tahrir.io.net.TrPeerManager.Capabilities;
+import tahrir.tools.TrBloomFilter;
 
 public interface TopologyMaintenanceSession extends TrSession {
 	@Priority(TrConstants.TOPOLOGY_MAINTENANCE_PRIORITY)
-	public void probeForLocation(final int locationToFind, int hopsToLive, final LinkedList<RemoteNodeAddress> requesters);
+	public void probeForLocation(final int locationToFind, int hopsToLive, final LinkedList<RemoteNodeAddress> requesters,
+			final TrBloomFilter visited);
 
 	@Priority(TrConstants.TOPOLOGY_MAINTENANCE_PRIORITY)
-	public void sendAcceptInfo(final RemoteNodeAddress acceptor, final LinkedList<RemoteNodeAddress> willConnectTo);
+	public void sendAcceptInfo(final RemoteNodeAddress acceptor, final Capabilities acceptorCapabilities,
+			int acceptorTopologyLocation);
 
 	@Priority(TrConstants.TOPOLOGY_MAINTENANCE_PRIORITY)
 	public void myCapabilitiesAre(final Capabilities myCapabilities, int topologyLocation);
+
+	@Priority(TrConstants.TOPOLOGY_MAINTENANCE_PRIORITY)
+	public void linkAccepted();
+
+	@Priority(TrConstants.TOPOLOGY_MAINTENANCE_PRIORITY)
+	public void linkRejected();
 }
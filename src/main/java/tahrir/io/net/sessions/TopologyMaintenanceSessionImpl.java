@@ -7,15 +7,31 @@ import tahrir.TrConstants;
 import tahrir.TrNode;
 import tahrir.io.net.PhysicalNetworkLocation;
 import tahrir.io.net.RemoteNodeAddress;
+import tahrir.io.net.TopologyRing;
 import tahrir.io.net.TrPeerManager.Capabilities;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
 import tahrir.io.net.TrSessionImpl;
 import tahrir.io.net.TrSessionManager;
+import tahrir.tools.TrBloomFilter;
 import tahrir.tools.TrUtils;
 
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Class for carrying out maintenance on topology in hopes of forming a small world network.
+ * <p/>
+ * A link between the acceptor and a forwarder is only made once both want it:
+ * <pre>
+ * acceptor  -> forwarder : sendAcceptInfo()    offers a link
+ * forwarder -> acceptor  : myCapabilitiesAre() would take it
+ * acceptor  -> forwarder : linkAccepted()      has added the forwarder
+ * forwarder -> acceptor  : linkRejected()      only if it can no longer add the acceptor
+ * </pre>
+ * so that neither side replaces one of its peers for a link the other never makes.
  * 
  * @author Kieran Donegan <kdonegan.92@gmail.com>
  */
@@ -25,16 +41,17 @@ public class TopologyMaintenanceSessionImpl extends TrSessionImpl implements Top
 
 	private boolean initator = false;
 
-	private PhysicalNetworkLocation receivedProbeFrom;
-
+	/**
+	 * Set if we are an acceptor, the node where the search for a location
+	 * ends, which will try to accept as many forwarders as possible.
+	 */
 	private LinkedList<RemoteNodeAddress> willConnectTo;
 
 	/**
-	 * A acceptor is the node where the search for a location ends, they will try accept as many
-	 * forwarders as possible.
+	 * Set if we are a forwarder, the acceptors which have offered us a link
+	 * that we've said we would take
 	 */
-	private boolean acceptor = false;
-	private RemoteNodeAddress acceptorAddress;
+	private final Map<PhysicalNetworkLocation, TrPeerInfo> offeredLinks = new ConcurrentHashMap<PhysicalNetworkLocation, TrPeerInfo>();
 
 	public TopologyMaintenanceSessionImpl(final Integer sessionId, final TrNode node, final TrSessionManager sessionMgr) {
 		super(sessionId, node, sessionMgr);
@@ -49,39 +66,56 @@ public class TopologyMaintenanceSessionImpl extends TrSessionImpl implements Top
 		initator = true;
 		final LinkedList<RemoteNodeAddress> forwarders = Lists.newLinkedList();
 		final int hopsToLive = TrConstants.MAINTENANCE_HOPS_TO_LIVE;
+		final TrBloomFilter visited = new TrBloomFilter(TrConstants.TOPOLOGY_PROBE_VISITED_FILTER_BITS,
+				TrConstants.TOPOLOGY_PROBE_VISITED_FILTER_HASHES);
 
-		probeForLocation(locationToFind, hopsToLive, forwarders);
+		probeForLocation(locationToFind, hopsToLive, forwarders, visited);
 	}
 
-	public void probeForLocation(final int locationToFind, int hopsToLive, final LinkedList<RemoteNodeAddress> forwarders) {
+	public void probeForLocation(final int locationToFind, int hopsToLive, final LinkedList<RemoteNodeAddress> forwarders,
+			final TrBloomFilter visited) {
+		// The filter comes from whoever sent us the probe
+		if (visited == null
+				|| !visited.isValid(TrConstants.TOPOLOGY_PROBE_VISITED_FILTER_BITS,
+						TrConstants.TOPOLOGY_PROBE_VISITED_FILTER_HASHES)) {
+			logger.warn("Dropping a probe for {} with a malformed visited filter", locationToFind);
+			return;
+		}
 		if (!initator) {
-			receivedProbeFrom = sender();
 			hopsToLive--;
 			node.peerManager.hasForwardedRecenlty = true;
 		}
+		visited.putObject(node.getRemoteNodeAddress().physicalLocation);
 
-		final RemoteNodeAddress closestPeerAddress = node.peerManager.getClosestPeer(locationToFind);
+		// Only the initiator branches, otherwise the number of probes would
+		// double with every hop
+		final List<RemoteNodeAddress> nextHops = hopsToLive <= 0 ? Collections.<RemoteNodeAddress> emptyList()
+				: getNextHops(locationToFind, visited, initator ? TrConstants.TOPOLOGY_PROBE_BRANCHES : 1);
 
-		if (logger.isDebugEnabled()) {
-			logger.debug("The closest peer found was {}, with a location of {}", node.getRemoteNodeAddress().physicalLocation, node.peerManager.locInfo.getLocation());
-		}
-
-		if (hopsToLive == 0 || closestPeerAddress.equals(node.getRemoteNodeAddress()) || (!initator && closestPeerAddress.physicalLocation.equals(sender()))) {
+		if (nextHops.isEmpty()) {
 			// the current node is the closest to what we're looking for or we've given up
-			acceptor = true;
+			if (logger.isDebugEnabled()) {
+				logger.debug("Probe for {} ended at {} with a location of {}", new Object[] { locationToFind,
+						node.getRemoteNodeAddress().physicalLocation, node.peerManager.locInfo.getLocation() });
+			}
 			sendResponses(forwarders);
 		} else {
 			if (hopsToLive > TrConstants.MAINTENANCE_HOPS_TO_LIVE) {
 				hopsToLive = TrConstants.HOPS_TO_LIVE_RESET;
 			}
 
-			node.peerManager.updateTimeLastUsed(closestPeerAddress.physicalLocation);
-
 			forwarders.add(node.getRemoteNodeAddress());
 
-			// get next location
-			final TopologyMaintenanceSession closestPeerSession = this.remoteSession(TopologyMaintenanceSession.class, this.connection(closestPeerAddress));
-			closestPeerSession.probeForLocation(locationToFind, hopsToLive, forwarders);
+			// Mark every branch as visited up front so that the branches don't
+			// wander into each other
+			for (final RemoteNodeAddress nextHop : nextHops) {
+				visited.putObject(nextHop.physicalLocation);
+			}
+			for (final RemoteNodeAddress nextHop : nextHops) {
+				node.peerManager.updateTimeLastUsed(nextHop.physicalLocation);
+				final TopologyMaintenanceSession nextHopSession = this.remoteSession(TopologyMaintenanceSession.class, this.connection(nextHop));
+				nextHopSession.probeForLocation(locationToFind, hopsToLive, forwarders, visited);
+			}
 		}
 	}
 
@@ -102,46 +136,86 @@ public class TopologyMaintenanceSessionImpl extends TrSessionImpl implements Top
 			}
 		}
 
-		// trace back so that then can accept us
-		if (!initator && willConnectTo.size() > 0) {
-			final TopologyMaintenanceSession senderSess = this.remoteSession(TopologyMaintenanceSession.class, connection(receivedProbeFrom));
-			senderSess.sendAcceptInfo(node.getRemoteNodeAddress(), willConnectTo);
-		}
-
-		// tell them we're trying to connect
+		// tell them directly rather than retracing the probe's path
 		for (final RemoteNodeAddress nodeToConnect : willConnectTo) {
 			final TopologyMaintenanceSession forwarderSess = this.remoteSession(TopologyMaintenanceSession.class, connection(nodeToConnect));
-			forwarderSess.myCapabilitiesAre(node.config.capabilities, node.peerManager.locInfo.getLocation());
+			forwarderSess.sendAcceptInfo(node.getRemoteNodeAddress(), node.config.capabilities,
+					node.peerManager.locInfo.getLocation());
 		}
 	}
 
-	public void sendAcceptInfo(final RemoteNodeAddress acceptor, final LinkedList<RemoteNodeAddress> willConnectTo) {
-		if (willConnectTo.contains(node.getRemoteNodeAddress())) {
+	public void sendAcceptInfo(final RemoteNodeAddress acceptor, final Capabilities acceptorCapabilities,
+			final int acceptorTopologyLocation) {
+		// Don't add the acceptor until it has added us, or we might replace
+		// one of our peers for a link the acceptor then decides against
+		if (node.peerManager.wouldAddByReplacement(acceptorTopologyLocation)) {
+			final TrPeerInfo offer = new TrPeerInfo(acceptor);
+			offer.capabilities = acceptorCapabilities;
+			offer.topologyLocation = acceptorTopologyLocation;
+			offeredLinks.put(acceptor.physicalLocation, offer);
 			final TopologyMaintenanceSession acceptorSess = this.remoteSession(TopologyMaintenanceSession.class, connection(acceptor));
-			acceptorAddress = acceptor;
 			acceptorSess.myCapabilitiesAre(node.config.capabilities, node.peerManager.locInfo.getLocation());
 		}
-
-		if (!initator) {
-			final TopologyMaintenanceSession senderSess = this.remoteSession(TopologyMaintenanceSession.class, connection(receivedProbeFrom));
-			senderSess.sendAcceptInfo(acceptor, willConnectTo);
-		}
 	}
 
 	public void myCapabilitiesAre(final Capabilities myCapabilities, final int topologyLocation) {
-		if (!acceptor) {
-			node.peerManager.addByReplacement(acceptorAddress, myCapabilities, topologyLocation);
-		} else {
-			RemoteNodeAddress forwarderAddress = null;
-			// find the remote address corresponding to sender()
-			for (RemoteNodeAddress address : willConnectTo) {
-				if (address.physicalLocation.equals(sender())) {
-					forwarderAddress = address;
-					break;
+		if (willConnectTo == null)
+			return;
+		// find the remote address corresponding to sender()
+		for (final RemoteNodeAddress address : willConnectTo) {
+			if (address.physicalLocation.equals(sender())) {
+				if (node.peerManager.addByReplacement(address, myCapabilities, topologyLocation)) {
+					final TopologyMaintenanceSession forwarderSess = this.remoteSession(TopologyMaintenanceSession.class, connection(address));
+					forwarderSess.linkAccepted();
 				}
+				return;
+			}
+		}
+	}
+
+	public void linkAccepted() {
+		final TrPeerInfo offer = offeredLinks.remove(sender());
+		if (offer == null)
+			return;
+		if (!node.peerManager.addByReplacement(offer.remoteNodeAddress, offer.capabilities, offer.topologyLocation)) {
+			// Our peers changed since we said we'd take the link
+			final TopologyMaintenanceSession acceptorSess = this.remoteSession(TopologyMaintenanceSession.class, connection(offer.remoteNodeAddress));
+			acceptorSess.linkRejected();
+		}
+	}
+
+	public void linkRejected() {
+		if (willConnectTo == null)
+			return;
+		for (final RemoteNodeAddress address : willConnectTo) {
+			if (address.physicalLocation.equals(sender())) {
+				node.peerManager.dropPeer(address.physicalLocation);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return Up to max of our peers which are closer to the location than we
+	 *         are and which the probe hasn't visited, closest first
+	 */
+	private List<RemoteNodeAddress> getNextHops(final int locationToFind, final TrBloomFilter visited, final int max) {
+		final int ourDistance = TopologyRing.distance(node.peerManager.locInfo.getLocation(), locationToFind);
+		final List<RemoteNodeAddress> nextHops = Lists.newArrayListWithCapacity(max);
+		for (final TrPeerInfo peer : node.peerManager.getNearestPeers(locationToFind, max
+				+ TrConstants.MAINTENANCE_HOPS_TO_LIVE)) {
+			if (TopologyRing.distance(peer.topologyLocation, locationToFind) >= ourDistance) {
+				break;
+			}
+			if (visited.mightContainObject(peer.remoteNodeAddress.physicalLocation)) {
+				continue;
+			}
+			nextHops.add(peer.remoteNodeAddress);
+			if (nextHops.size() == max) {
+				break;
 			}
-			node.peerManager.addByReplacement(forwarderAddress, myCapabilities, topologyLocation);
 		}
+		return nextHops;
 	}
 
 	private int getNumPeerToAccept(final LinkedList<RemoteNodeAddress> forwarders) {
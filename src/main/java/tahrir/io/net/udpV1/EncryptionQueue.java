@@ -0,0 +1,109 @@
+package tahrir.io.net.udpV1;
+
+import java.io.InterruptedIOException;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.*;
+
+import tahrir.TrConstants;
+
+/**
+ * A connection's outbound messages waiting to be encrypted, run on a shared
+ * executor a batch at a time. At most one thread drains a queue at a time,
+ * so messages are encrypted, and reach the outbox, in the order they were
+ * added.
+ *
+ * Only so many messages may wait at once. Beyond that, adding one blocks
+ * until the executor catches up, unless the caller mustn't block (the
+ * thread receiving packets, which would otherwise stop handling every
+ * connection), in which case the limit is exceeded instead.
+ */
+class EncryptionQueue {
+	private static final Logger logger = LoggerFactory.getLogger(EncryptionQueue.class);
+
+	private final Executor executor;
+
+	private final Queue<Job> jobs = new ConcurrentLinkedQueue<Job>();
+
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	private final Semaphore permits;
+
+	public EncryptionQueue(final Executor executor, final int maxPending) {
+		this.executor = executor;
+		permits = new Semaphore(maxPending);
+	}
+
+	/**
+	 * @param mayBlock Whether to wait for room if too many messages are
+	 *        already waiting, rather than go over the limit
+	 */
+	public void add(final Runnable encryptAndSend, final boolean mayBlock) throws InterruptedIOException {
+		boolean hasPermit = permits.tryAcquire();
+		if (!hasPermit && mayBlock) {
+			try {
+				permits.acquire();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting to encrypt message");
+			}
+			hasPermit = true;
+		}
+		jobs.add(new Job(encryptAndSend, hasPermit));
+		schedule();
+	}
+
+	/**
+	 * @return How many more messages may be added before adding blocks
+	 */
+	public int availablePermits() {
+		return permits.availablePermits();
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			executor.execute(new Runnable() {
+
+				public void run() {
+					// Only do a batch at a time so one busy connection can't
+					// starve the others
+					try {
+						for (int x = 0; x < TrConstants.UDP_ENCRYPTION_BATCH_SIZE; x++) {
+							final Job job = jobs.poll();
+							if (job == null) {
+								break;
+							}
+							try {
+								job.encryptAndSend.run();
+							} catch (final RuntimeException e) {
+								logger.error("Error encrypting message", e);
+							} finally {
+								if (job.hasPermit) {
+									permits.release();
+								}
+							}
+						}
+					} finally {
+						scheduled.set(false);
+					}
+					// Something may have been added after we stopped looking
+					if (!jobs.isEmpty()) {
+						schedule();
+					}
+				}
+			});
+		}
+	}
+
+	private static class Job {
+		public final Runnable encryptAndSend;
+		public final boolean hasPermit;
+
+		public Job(final Runnable encryptAndSend, final boolean hasPermit) {
+			this.encryptAndSend = encryptAndSend;
+			this.hasPermit = hasPermit;
+		}
+	}
+}
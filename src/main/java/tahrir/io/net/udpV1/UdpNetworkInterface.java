@@ -2,6 +2,7 @@ package tahrir.io.net.udpV1;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tahrir.TrConstants;
@@ -20,6 +21,8 @@ import java.net.SocketTimeoutException;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.interfaces.RSAPublicKey;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -28,6 +31,14 @@ import java.util.concurrent.TimeUnit;
  *
  */
 public class UdpNetworkInterface extends TrNetworkInterface {
+	/**
+	 * Encrypts outbound messages off the thread that sent them, shared by
+	 * every interface in the JVM since it is CPU bound.
+	 */
+	static final ExecutorService encryptionExecutor = Executors.newFixedThreadPool(
+			TrConstants.UDP_ENCRYPTION_THREADS,
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("UdpEncryption-%d").build());
+
 	private final org.slf4j.Logger logger;
 	public final RSAPrivateKey myPrivateKey;
 	public final RSAPublicKey myPublicKey;
@@ -102,6 +113,14 @@ public class UdpNetworkInterface extends TrNetworkInterface {
 		outbox.add(qp);
 	}
 
+	/**
+	 * @return True if called from the thread which receives packets, and so
+	 *         handles them, for every connection on this interface
+	 */
+	boolean isReceiverThread() {
+		return Thread.currentThread() == receiver;
+	}
+
 	@Override
 	public void shutdown() {
 		sender.active = false;
@@ -131,6 +150,12 @@ public class UdpNetworkInterface extends TrNetworkInterface {
 		public int listenPort = TrUtils.rand.nextInt(10000)+10000;
 
 		public volatile int maxUpstreamBytesPerSecond = 1024;
+
+		/**
+		 * How many outbound messages may be waiting for encryption on a single
+		 * connection before senders on that connection block.
+		 */
+		public int maxPendingEncryptions = 64;
 	}
 
 	private static class QueuedPacket implements Comparable<QueuedPacket> {
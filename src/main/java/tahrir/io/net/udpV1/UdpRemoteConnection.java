@@ -31,15 +31,22 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 
 	private final ScheduledFuture<?> keepAliveSender;
 	private final org.slf4j.Logger logger;
-	private TrSymKey outboundSymKey;
+	private volatile TrSymKey outboundSymKey;
+
+	/**
+	 * Plaintext messages waiting to be encrypted and put on the outbox, in the
+	 * order they were sent
+	 */
+	private final EncryptionQueue awaitingEncryption;
 
 	private final Map<Integer, PendingLongMessage> pendingReceivedLongMessages = CacheBuilder.newBuilder()
 			.expireAfterWrite(20, TimeUnit.MINUTES).<Integer, PendingLongMessage> build().asMap();
 
+	// Keyed on the sender's random message id, so no hashing is needed
 	private final Set<Integer> recentlyReceivedShortMessages = Collections.newSetFromMap(CacheBuilder.newBuilder().expireAfterWrite(20,
 			TimeUnit.MINUTES).<Integer, Boolean> build().asMap());
 
-	private boolean remoteHasCachedOurOutboundSymKey = false;
+	private volatile boolean remoteHasCachedOurOutboundSymKey = false;
 
 	private final Map<Integer, Resender> resenders = new MapMaker().makeMap();
 
@@ -57,6 +64,8 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 			final boolean unilateralOutbound) {
 		super(remoteAddr, remotePubKey, listener, connectedCallback, disconnectedCallback, unilateralOutbound);
 		this.iface = iface;
+		awaitingEncryption = new EncryptionQueue(UdpNetworkInterface.encryptionExecutor,
+				iface.config.maxPendingEncryptions);
 		logger = LoggerFactory.getLogger(UdpRemoteConnection.class.getName()+" ("+iface.config.listenPort+">"+remoteAddr.port+")");
 		logger.debug("Created");
 
@@ -132,6 +141,7 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 	public void received(final TrNetworkInterface iFace, final PhysicalNetworkLocation sender_,
 			ByteArraySegment message) {
 		logger.debug("Received message from "+sender_);
+		health.received(message.length);
 		final UdpNetworkLocation sender = (UdpNetworkLocation) sender_;
 		if (inboundSymKey == null) {
 			logger.debug("We don't know the inboundSymKey yet, looking for it to be pre-pended to message");
@@ -180,6 +190,7 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 				final int messageId = dis.readInt();
 				final Resender resender = resenders.remove(messageId);
 				if (resender != null) {
+					health.acknowledged(resender.retryCount, System.currentTimeMillis() - resender.firstSentTime);
 					resender.receiptConfirmed = true;
 					resender.callbacks.received();
 				}
@@ -223,17 +234,24 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 			// logger.debug("Sending short message");
 			final ByteArraySegmentBuilder builder = ByteArraySegment.builder();
 			PrimitiveMessageType.SHORT.write(builder);
-			final int messageId = TrUtils.rand.nextInt();
+			final int messageId = TrRandom.nextId();
 			builder.writeInt(messageId);
 			ShortMessageType.SIMPLE.write(builder);
 			builder.write(message);
-			final Resender resender = new Resender(messageId, TrConstants.UDP_SHORT_MESSAGE_RETRY_ATTEMPTS, sentListener,
-					encryptOutbound(builder.build()), this, priority);
-			resenders.put(messageId, resender);
-			resender.run();
+			queueForEncryption(new OutboundMessage(messageId, builder.build(), sentListener, priority));
 		}
 	}
 
+	/**
+	 * Hand a message to the encryption workers, blocking if too many of this
+	 * connection's messages are already waiting for them. Messages sent in
+	 * response to one we received are sent from the receiving thread, which
+	 * is never blocked, as that would hold up every connection.
+	 */
+	private void queueForEncryption(final OutboundMessage message) throws IOException {
+		awaitingEncryption.add(message, !iface.isReceiverThread());
+	}
+
 	private ByteArraySegment encryptOutbound(final ByteArraySegment rawMessage) {
 		final ByteArraySegmentBuilder toSend = ByteArraySegment.builder();
 		if (!remoteHasCachedOurOutboundSymKey) {
@@ -296,7 +314,7 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 			segments.add(message.subsegment(startPos, packetSize));
 			startPos += packetSize;
 		}
-		final int longMessageId = TrUtils.rand.nextInt();
+		final int longMessageId = TrRandom.nextId();
 		final ArrayList<AtomicBoolean> sent = Lists.newArrayListWithCapacity(segments.size());
 		final ArrayList<AtomicBoolean> received = Lists.newArrayListWithCapacity(segments.size());
 		for (int x = 0; x < segments.size(); x++) {
@@ -308,11 +326,11 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 				final LongPart lp = new LongPart(longMessageId, x, segments.size(), segments.get(x));
 				final ByteArraySegmentBuilder builder = ByteArraySegment.builder();
 				PrimitiveMessageType.SHORT.write(builder);
-				final int messageId = TrUtils.rand.nextInt();
+				final int messageId = TrRandom.nextId();
 				builder.writeInt(messageId);
 				ShortMessageType.LONG_PART.write(builder);
 				TrSerializer.serializeTo(lp, builder);
-				final Resender resender = new Resender(messageId, TrConstants.UDP_SHORT_MESSAGE_RETRY_ATTEMPTS, new TrSentReceivedListener() {
+				final TrSentReceivedListener partListener = new TrSentReceivedListener() {
 
 					boolean failureReported = false;
 
@@ -343,15 +361,47 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 						}
 						sentListener.sent();
 					}
-				}, encryptOutbound(builder.build()), this, priority);
-				resenders.put(messageId, resender);
-				resender.run();
+				};
+				queueForEncryption(new OutboundMessage(messageId, builder.build(), partListener, priority));
 			} catch (final TrSerializableException e) {
 				throw new RuntimeException(e);
 			}
 		}
 	}
 
+	/**
+	 * A message which has been sent but is yet to be encrypted.
+	 */
+	private class OutboundMessage implements Runnable {
+		private final int messageId;
+		private final ByteArraySegment plainText;
+		private final TrSentReceivedListener sentListener;
+		private final double priority;
+
+		public OutboundMessage(final int messageId, final ByteArraySegment plainText,
+				final TrSentReceivedListener sentListener, final double priority) {
+			this.messageId = messageId;
+			this.plainText = plainText;
+			this.sentListener = sentListener;
+			this.priority = priority;
+		}
+
+		public void run() {
+			final ByteArraySegment cipherText;
+			try {
+				cipherText = encryptOutbound(plainText);
+			} catch (final RuntimeException e) {
+				logger.error("Failed to encrypt message " + messageId, e);
+				sentListener.failure();
+				return;
+			}
+			final Resender resender = new Resender(messageId, TrConstants.UDP_SHORT_MESSAGE_RETRY_ATTEMPTS, sentListener,
+					cipherText, UdpRemoteConnection.this, priority);
+			resenders.put(messageId, resender);
+			resender.run();
+		}
+	}
+
 	public static class LongPart {
 		public ByteArraySegment data;
 		public int longMessageId;
@@ -433,13 +483,14 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 		 * at which point this Resender's work is done
 		 */
 		public volatile boolean receiptConfirmed = false;
+		private volatile long firstSentTime;
 		private final TrSentReceivedListener callbacks;
 		private final double initialPriority;
 		private final int maxRetries;
 		private final ByteArraySegment message;
 		private final int messageId;
 		private final UdpRemoteConnection parent;
-		private int retryCount = 0;
+		private volatile int retryCount = 0;
 		public Resender(final int messageId, final int maxRetries, final TrSentReceivedListener callbacks,
 				final ByteArraySegment message, final UdpRemoteConnection parent, final double initialPriority) {
 			this.messageId = messageId;
@@ -456,10 +507,17 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 			if (retryCount == maxRetries || receiptConfirmed || parent.shutdown) {
 				parent.resenders.remove(messageId);
 				if (retryCount == maxRetries || parent.shutdown) {
+					if (!receiptConfirmed) {
+						parent.health.deliveryFailed(retryCount);
+					}
 					callbacks.failure();
 				}
 			} else {
 				// Otherwise, (re)send the message
+				if (thisRetryNo == 0) {
+					firstSentTime = System.currentTimeMillis();
+				}
+				parent.health.sent(message.length, thisRetryNo > 0);
 				parent.iface.sendTo(parent.remoteAddress, message, new TrSentListener() {
 
 					public void failure() {
@@ -471,7 +529,7 @@ public class UdpRemoteConnection extends TrRemoteConnection {
 							callbacks.sent();
 						}
 						// And schedule sending the next message in case this one doesn't work
-						TrUtils.executor.schedule(Resender.this, 5, TimeUnit.SECONDS);
+						TrUtils.executor.schedule(Resender.this, TrConstants.UDP_RESEND_INTERVAL_SECONDS, TimeUnit.SECONDS);
 					}
 				}, thisRetryNo == 0 ? initialPriority : TrNetworkInterface.PACKET_RESEND_PRIORITY);
 				retryCount++;
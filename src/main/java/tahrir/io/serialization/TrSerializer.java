@@ -34,6 +34,8 @@ public abstract class TrSerializer {
 		registerSerializer(new MapSerializer(), Map.class);
 		registerSerializer(new RSAPublicKeySerializer(), RSAPublicKey.class);
 		registerSerializer(new RSAPrivateKeySerializer(), RSAPrivateKey.class);
+		registerSerializer(new ECPublicKeySerializer(), ECPublicKey.class);
+		registerSerializer(new ECPrivateKeySerializer(), ECPrivateKey.class);
 		registerSerializer(new ByteArraySegmentSerializer(), ByteArraySegment.class);
 		registerSerializer(new InetAddressSerializer(), InetAddress.class);
 		registerSerializer(new NetworkLocationSerializer(), PhysicalNetworkLocation.class);
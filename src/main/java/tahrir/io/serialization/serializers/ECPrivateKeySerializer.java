@@ -0,0 +1,33 @@
+package tahrir.io.serialization.serializers;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.security.interfaces.ECPrivateKey;
+
+import tahrir.io.crypto.TrCrypto;
+import tahrir.io.serialization.TrSerializer;
+import tahrir.tools.TrUtils;
+
+public class ECPrivateKeySerializer extends TrSerializer {
+
+	public ECPrivateKeySerializer() {
+		super(ECPrivateKey.class);
+	}
+
+	@Override
+	protected ECPrivateKey deserialize(final Type type, final DataInputStream dis) throws IOException {
+		final byte[] bytes = new byte[dis.readInt()];
+		TrUtils.readAllBytes(bytes, dis);
+		return TrCrypto.decodeECPrivateKey(bytes);
+	}
+
+	@Override
+	protected void serialize(final Type type, final Object object, final DataOutputStream dos) throws IOException {
+		final ECPrivateKey key = (ECPrivateKey) object;
+		final byte[] encoded = key.getEncoded();
+		dos.writeInt(encoded.length);
+		dos.write(encoded);
+	}
+
+
+}
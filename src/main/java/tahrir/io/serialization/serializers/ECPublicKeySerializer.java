@@ -0,0 +1,33 @@
+package tahrir.io.serialization.serializers;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.security.interfaces.ECPublicKey;
+
+import tahrir.io.crypto.TrCrypto;
+import tahrir.io.serialization.TrSerializer;
+import tahrir.tools.TrUtils;
+
+public class ECPublicKeySerializer extends TrSerializer {
+
+	public ECPublicKeySerializer() {
+		super(ECPublicKey.class);
+	}
+
+	@Override
+	public ECPublicKey deserialize(final Type type, final DataInputStream dis) throws IOException {
+		final byte[] bytes = new byte[dis.readInt()];
+		TrUtils.readAllBytes(bytes, dis);
+		return TrCrypto.decodeECPublicKey(bytes);
+	}
+
+	@Override
+	public void serialize(final Type type, final Object object, final DataOutputStream dos) throws IOException {
+		final ECPublicKey key = (ECPublicKey) object;
+		final byte[] encoded = key.getEncoded();
+		dos.writeInt(encoded.length);
+		dos.write(encoded);
+	}
+
+
+}
@@ -2,10 +2,10 @@ package tahrir.io.serialization.serializers;
 
 import java.io.*;
 import java.lang.reflect.Type;
-import java.security.KeyFactory;
 import java.security.interfaces.RSAPrivateKey;
 import java.security.spec.PKCS8EncodedKeySpec;
 
+import tahrir.io.crypto.TrCrypto;
 import tahrir.io.serialization.TrSerializer;
 import tahrir.tools.TrUtils;
 
@@ -19,11 +19,7 @@ public class RSAPrivateKeySerializer extends TrSerializer {
 	protected RSAPrivateKey deserialize(final Type type, final DataInputStream dis) throws IOException {
 		final byte[] bytes = new byte[dis.readInt()];
 		TrUtils.readAllBytes(bytes, dis);
-		try {
-			return (RSAPrivateKey) KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(bytes));
-		} catch (final Exception e) {
-			throw new RuntimeException(e);
-		}
+		return TrCrypto.decodeRSAPrivateKey(bytes);
 	}
 
 	@Override
@@ -2,10 +2,9 @@ package tahrir.io.serialization.serializers;
 
 import java.io.*;
 import java.lang.reflect.Type;
-import java.security.KeyFactory;
 import java.security.interfaces.RSAPublicKey;
-import java.security.spec.X509EncodedKeySpec;
 
+import tahrir.io.crypto.TrCrypto;
 import tahrir.io.serialization.TrSerializer;
 import tahrir.tools.TrUtils;
 
@@ -19,11 +18,7 @@ public class RSAPublicKeySerializer extends TrSerializer {
 	public RSAPublicKey deserialize(final Type type, final DataInputStream dis) throws IOException {
 		final byte[] bytes = new byte[dis.readInt()];
 		TrUtils.readAllBytes(bytes, dis);
-		try {
-			return (RSAPublicKey) KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(bytes));
-		} catch (final Exception e) {
-			throw new RuntimeException(e);
-		}
+		return TrCrypto.decodeRSAPublicKey(bytes);
 	}
 
 	@Override
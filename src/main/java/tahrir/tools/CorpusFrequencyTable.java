@@ -0,0 +1,70 @@
+package tahrir.tools;
+
+import java.io.*;
+import java.util.*;
+
+import tahrir.tools.ShortTextCompressor.FrequencyTable;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.*;
+
+/**
+ * A character frequency table counted from a corpus of typical text, so that
+ * both ends of a connection can build the same Huffman tree without it being
+ * sent along with every message.
+ *
+ * Every printable ASCII character and newline is given a count of at least
+ * one, so any text made of them can be compressed even if the corpus doesn't
+ * happen to contain it. The corpus must never change once text compressed
+ * with it may have been sent, a new corpus needs a new version.
+ */
+public class CorpusFrequencyTable implements FrequencyTable {
+	private final char[] symbols;
+
+	private final int[] frequencies;
+
+	public CorpusFrequencyTable(final String corpus) {
+		final SortedMap<Character, Integer> counts = new TreeMap<Character, Integer>();
+		counts.put('\n', 1);
+		for (char c = ' '; c <= '~'; c++) {
+			counts.put(c, 1);
+		}
+		for (int x = 0; x < corpus.length(); x++) {
+			final char c = corpus.charAt(x);
+			final Integer count = counts.get(c);
+			counts.put(c, count == null ? 1 : count + 1);
+		}
+		symbols = new char[counts.size()];
+		frequencies = new int[counts.size()];
+		int x = 0;
+		for (final Map.Entry<Character, Integer> e : counts.entrySet()) {
+			symbols[x] = e.getKey();
+			frequencies[x] = e.getValue();
+			x++;
+		}
+	}
+
+	/**
+	 * @param resourceName A UTF-8 text resource, relative to the class
+	 */
+	public static CorpusFrequencyTable fromResource(final Class<?> c, final String resourceName) {
+		try {
+			return new CorpusFrequencyTable(Resources.toString(Resources.getResource(c, resourceName),
+					Charsets.UTF_8));
+		} catch (final IOException e) {
+			throw new RuntimeException("Couldn't read corpus " + resourceName, e);
+		}
+	}
+
+	public char getSymbol(final int index) {
+		return symbols[index];
+	}
+
+	public int getFrequency(final int symbolIndex) {
+		return frequencies[symbolIndex];
+	}
+
+	public int size() {
+		return symbols.length;
+	}
+}
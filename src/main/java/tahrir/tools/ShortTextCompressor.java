@@ -42,10 +42,10 @@ public class ShortTextCompressor {
 	public byte[] compress(final String toCompress) {
 		checkArgument(toCompress != null, "toCompress text can't be null.");
 		final char[] charArray = toCompress.toCharArray();
-		// Just only one character to be encoding is unnecessary.
+		// Just only one symbol to be encoding is unnecessary.
 		// To return zero size byte array is ugly, maybe we should consider a
 		// better solution for this case?
-		if (charArray.length == 1)
+		if (tree.leafSize() == 1)
 			return new byte[0];
 
 		// The dictionary just for encode, so we lazy build it
@@ -78,6 +78,38 @@ public class ShortTextCompressor {
 				throw new IllegalStateException("The toDecompress otherData isn't encoded correctly.");
 		}
 
+		return decode(toDeCompress, charNum);
+	}
+
+	/**
+	 * Decompress text which was compressed with a table shared ahead of time
+	 * rather than built from the text itself, whose frequencies can't tell us
+	 * how many characters there are.
+	 */
+	public String deCompress(final byte[] toDeCompress, final int charCount) {
+		checkArgument(toDeCompress != null, "toDeCompress otherData can't be null.");
+		checkArgument(charCount >= 0, "charCount can't be negative.");
+		if (charCount == 0)
+			return "";
+		return decode(toDeCompress, charCount);
+	}
+
+	/**
+	 * @return True if every character of the text is in the frequency table,
+	 *         so that it can be compressed
+	 */
+	public boolean canCompress(final String text) {
+		if (dictionary == null) {
+			dictionary = tree.buildDictionary();
+		}
+		for (int x = 0; x < text.length(); x++) {
+			if (!dictionary.containsKey(text.charAt(x)))
+				return false;
+		}
+		return true;
+	}
+
+	private String decode(final byte[] toDeCompress, final int charNum) {
 		// The total number of character categories
 		final int charCategory = tree.leafSize();
 
@@ -86,8 +118,7 @@ public class ShortTextCompressor {
 		if (charCategory == 1) {
 			final char symbol = tree.getRoot().getSymbol();
 			assert symbol != TreeNode.NULL;
-			final int frequency = tree.getRoot().getPriority();
-			final char[] chars = new char[frequency];
+			final char[] chars = new char[charNum];
 			Arrays.fill(chars, symbol);
 			return new String(chars);
 		}
@@ -0,0 +1,109 @@
+package tahrir.tools;
+
+import java.util.Arrays;
+
+/**
+ * A small Bloom filter which can be sent over the network. Elements are
+ * added by their {@link TrFastHash} hash, from which each probe position is
+ * derived by double hashing.
+ */
+public class TrBloomFilter {
+	private long[] bits;
+
+	private int hashCount;
+
+	// For serialization
+	public TrBloomFilter() {
+
+	}
+
+	/**
+	 * @param bitCount Rounded up to a multiple of 64
+	 */
+	public TrBloomFilter(final int bitCount, final int hashCount) {
+		bits = new long[Math.max(1, (bitCount + 63) / 64)];
+		this.hashCount = hashCount;
+	}
+
+	/**
+	 * A filter big enough to hold expected elements with the given false
+	 * positive probability
+	 */
+	public static TrBloomFilter create(final int expected, final double falsePositiveProbability) {
+		final int n = Math.max(1, expected);
+		final int bitCount = (int) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+		final int hashCount = Math.max(1, (int) Math.round((double) bitCount / n * Math.log(2)));
+		return new TrBloomFilter(bitCount, hashCount);
+	}
+
+	public void put(final long hash) {
+		final int bitCount = bitCount();
+		final int h1 = (int) hash, h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			final int bit = index(h1, h2, i, bitCount);
+			bits[bit >>> 6] |= 1l << bit;
+		}
+	}
+
+	public void putObject(final Object o) {
+		put(TrFastHash.hash64(o));
+	}
+
+	public boolean mightContain(final long hash) {
+		final int bitCount = bitCount();
+		final int h1 = (int) hash, h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			final int bit = index(h1, h2, i, bitCount);
+			if ((bits[bit >>> 6] & (1l << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Add everything in another filter, which must have the same size and
+	 * number of hashes as this one
+	 */
+	public void putAll(final TrBloomFilter other) {
+		if (other.bits.length != bits.length || other.hashCount != hashCount)
+			throw new IllegalArgumentException("Can't combine Bloom filters of different shapes");
+		for (int x = 0; x < bits.length; x++) {
+			bits[x] |= other.bits[x];
+		}
+	}
+
+	public boolean mightContainObject(final Object o) {
+		return mightContain(TrFastHash.hash64(o));
+	}
+
+	/**
+	 * A filter from a peer may have any shape at all, so check it before
+	 * using it
+	 *
+	 * @return True if the filter has at least one and at most maxBits bits,
+	 *         and uses at least one and at most maxHashes hashes
+	 */
+	public boolean isValid(final int maxBits, final int maxHashes) {
+		return bits != null && bits.length > 0 && bits.length <= (maxBits + 63) / 64 && hashCount > 0
+				&& hashCount <= maxHashes;
+	}
+
+	public int bitCount() {
+		return bits.length * 64;
+	}
+
+	public TrBloomFilter copy() {
+		final TrBloomFilter copy = new TrBloomFilter();
+		copy.bits = Arrays.copyOf(bits, bits.length);
+		copy.hashCount = hashCount;
+		return copy;
+	}
+
+	private static int index(final int h1, final int h2, final int i, final int bitCount) {
+		int combined = h1 + i * h2;
+		if (combined < 0) {
+			combined = ~combined;
+		}
+		return combined % bitCount;
+	}
+}
@@ -0,0 +1,42 @@
+package tahrir.tools;
+
+import java.io.*;
+
+import tahrir.io.serialization.TrSerializer;
+
+import com.google.common.hash.*;
+
+/**
+ * The fast, non-cryptographic tier of hashing: 64-bit hashes for in-memory
+ * deduplication, hash sets and Bloom filters.
+ *
+ * These hashes are NOT collision resistant against someone trying to
+ * produce a collision, so they must never stand in for a signature or be
+ * used to decide whether data is authentic; use
+ * {@link tahrir.io.crypto.TrHash} for that.
+ */
+public class TrFastHash {
+	private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+	public static long hash64(final byte[] bytes) {
+		return hashFunction.hashBytes(bytes).asLong();
+	}
+
+	public static long hash64(final ByteArraySegment bas) {
+		return hashFunction.hashBytes(bas.array, bas.offset, bas.length).asLong();
+	}
+
+	/**
+	 * Hash the serialized form of an object, so equal objects hash equally
+	 * on every node.
+	 */
+	public static long hash64(final Object toHash) {
+		final Hasher hasher = hashFunction.newHasher();
+		try {
+			TrSerializer.serializeTo(toHash, new DataOutputStream(Funnels.asOutputStream(hasher)));
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+		return hasher.hash().asLong();
+	}
+}
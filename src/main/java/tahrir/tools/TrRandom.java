@@ -0,0 +1,101 @@
+package tahrir.tools;
+
+import java.security.*;
+import java.util.Random;
+
+/**
+ * Per-thread sources of randomness, so that threads on the send path never
+ * contend on a single shared generator.
+ *
+ * Use {@link #ids()} for message ids, session ids and other values which only
+ * need to be unlikely to collide, and {@link #secure()} for anything an
+ * attacker must not be able to predict, such as IVs.
+ */
+public class TrRandom {
+	private static final ThreadLocal<Random> idRandom = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			// Seed from the shared source so threads started together diverge
+			return new Random(seeder().nextLong() ^ System.nanoTime());
+		}
+	};
+
+	private static final ThreadLocal<SecureRandom> secureRandom = new ThreadLocal<SecureRandom>() {
+		@Override
+		protected SecureRandom initialValue() {
+			try {
+				// SHA1PRNG keeps its state in the instance, unlike NativePRNG
+				// which serializes every caller on a global lock
+				final SecureRandom sr = SecureRandom.getInstance("SHA1PRNG");
+				sr.setSeed(seeder().generateSeed(32));
+				return sr;
+			} catch (final NoSuchAlgorithmException e) {
+				return new SecureRandom();
+			}
+		}
+	};
+
+	private static SecureRandom seeder;
+
+	private static synchronized SecureRandom seeder() {
+		if (seeder == null) {
+			seeder = new SecureRandom();
+		}
+		return seeder;
+	}
+
+	/**
+	 * A cheap, unsynchronized generator owned by the calling thread, which
+	 * must not be handed to other threads.
+	 */
+	public static Random ids() {
+		return idRandom.get();
+	}
+
+	/**
+	 * A cryptographically strong generator owned by the calling thread, which
+	 * must not be handed to other threads.
+	 */
+	public static SecureRandom secure() {
+		return secureRandom.get();
+	}
+
+	public static int nextId() {
+		return idRandom.get().nextInt();
+	}
+
+	/**
+	 * Sample from a Beta(alpha, beta) distribution without allocating, as the
+	 * ratio of two gamma samples.
+	 */
+	public static double nextBeta(final double alpha, final double beta) {
+		final Random r = idRandom.get();
+		final double x = nextGamma(alpha, r);
+		final double y = nextGamma(beta, r);
+		return x / (x + y);
+	}
+
+	/**
+	 * Sample from a Gamma(shape, 1) distribution using Marsaglia and Tsang's
+	 * method.
+	 */
+	public static double nextGamma(final double shape, final Random r) {
+		if (shape < 1) {
+			// Boost the shape and correct for it afterwards
+			return nextGamma(shape + 1, r) * Math.pow(r.nextDouble(), 1 / shape);
+		}
+		final double d = shape - 1.0 / 3;
+		final double c = 1 / Math.sqrt(9 * d);
+		while (true) {
+			double x, v;
+			do {
+				x = r.nextGaussian();
+				v = 1 + c * x;
+			} while (v <= 0);
+			v = v * v * v;
+			final double u = r.nextDouble();
+			if (u < 1 - 0.0331 * x * x * x * x || Math.log(u) < 0.5 * x * x + d * (1 - v + Math.log(v)))
+				return d * v;
+		}
+	}
+}
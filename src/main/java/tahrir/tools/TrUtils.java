@@ -9,18 +9,23 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonParseException;
 import tahrir.TrConfig;
 import tahrir.TrNode;
-import tahrir.io.crypto.TrCrypto;
+import tahrir.io.crypto.KeyPairPool;
+import tahrir.io.net.RemoteNodeAddress;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
 import tahrir.io.net.microblogging.MicroblogParser.MentionPart;
 import tahrir.io.net.microblogging.MicroblogParser.ParsedPart;
 import tahrir.io.net.microblogging.MicroblogParser.PositionComparator;
 import tahrir.io.net.microblogging.MicroblogParser.TextPart;
 import tahrir.io.net.microblogging.microblogs.GeneralMicroblogInfo;
 import tahrir.io.net.microblogging.microblogs.ParsedMicroblog;
+import tahrir.io.net.udpV1.UdpNetworkLocation;
 import tahrir.tools.GsonSerializers.RSAPublicKeyDeserializer;
 import tahrir.tools.GsonSerializers.RSAPublicKeySerializer;
 
 import java.io.*;
 import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.security.interfaces.RSAPublicKey;
 import java.util.Random;
 import java.util.concurrent.Executors;
@@ -109,6 +114,26 @@ public class TrUtils {
 			return new TrNode(nodeDir, nodeConfig);
 		}
 
+		/**
+		 * A peer with no public key on a local port, for tests of peer
+		 * bookkeeping which never actually connect to it
+		 */
+		public static TrPeerInfo makePeer(final int port) {
+			return makePeer(port, 0);
+		}
+
+		public static TrPeerInfo makePeer(final int port, final int topologyLocation) {
+			final TrPeerInfo peer;
+			try {
+				peer = new TrPeerInfo(new RemoteNodeAddress(new UdpNetworkLocation(InetAddress.getByName("127.0.0.1"),
+						port), null));
+			} catch (final UnknownHostException e) {
+				throw new RuntimeException(e);
+			}
+			peer.topologyLocation = topologyLocation;
+			return peer;
+		}
+
 		public static void createBidirectionalConnection(final TrNode node1, final TrNode node2) {
 			node1.peerManager.addNewPeer(node2.getRemoteNodeAddress(), node2.config.capabilities,
 					node2.peerManager.locInfo.getLocation());
@@ -122,13 +147,13 @@ public class TrUtils {
 		public static ParsedMicroblog getParsedMicroblog() {
 			int mbPosition = 0;
 			ParsedPart text = new TextPart(mbPosition++, "Here's a mention of a random user ");
-			ParsedPart mention = new MentionPart(mbPosition++, TrCrypto.createRsaKeyPair().a, "anAlias");
+			ParsedPart mention = new MentionPart(mbPosition++, KeyPairPool.getDefault().take().a, "anAlias");
 
 			SortedMultiset<ParsedPart> parsedParts = TreeMultiset.create(new PositionComparator());
 			parsedParts.add(text);
 			parsedParts.add(mention);
 
-			GeneralMicroblogInfo mbData = new GeneralMicroblogInfo(null, "aAuthor", TrCrypto.createRsaKeyPair().a,
+			GeneralMicroblogInfo mbData = new GeneralMicroblogInfo(null, "aAuthor", KeyPairPool.getDefault().take().a,
 					System.currentTimeMillis());
 			return new ParsedMicroblog(mbData, ImmutableSortedMultiset.copyOf(new PositionComparator(),
 					parsedParts));
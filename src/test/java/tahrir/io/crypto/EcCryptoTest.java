@@ -0,0 +1,85 @@
+package tahrir.io.crypto;
+
+import java.io.*;
+import java.security.interfaces.*;
+
+import org.slf4j.*;
+import org.testng.Assert;
+import org.testng.annotations.*;
+
+import tahrir.io.crypto.RsaAesTest.TestObject;
+import tahrir.io.serialization.TrSerializer;
+import tahrir.tools.*;
+
+public class EcCryptoTest {
+
+	private static final Logger logger = LoggerFactory.getLogger(EcCryptoTest.class);
+
+	private Tuple2<ECPublicKey, ECPrivateKey> keyPair1;
+	private Tuple2<ECPublicKey, ECPrivateKey> keyPair2;
+
+	@BeforeClass
+	public void init() {
+		keyPair1 = TrCrypto.createEcKeyPair();
+		keyPair2 = TrCrypto.createEcKeyPair();
+	}
+
+	@Test
+	public void keyGenerationSpeedTest() {
+		long startTime = System.currentTimeMillis();
+		for (int x = 0; x < 10; x++) {
+			TrCrypto.createEcKeyPair();
+		}
+		logger.info("EC key generation time (ms): " + ((double) System.currentTimeMillis() - startTime) / 10.0);
+		startTime = System.currentTimeMillis();
+		for (int x = 0; x < 10; x++) {
+			TrCrypto.createRsaKeyPair();
+		}
+		logger.info("RSA key generation time (ms): " + ((double) System.currentTimeMillis() - startTime) / 10.0);
+	}
+
+	@Test
+	public void testObjectSignVerify() throws Exception {
+		final TestObject obj1 = new TestObject();
+		obj1.i1 = 12;
+		obj1.str = "hello";
+		final TestObject obj2 = new TestObject();
+		obj2.i1 = 13;
+		obj2.str = "goodbye";
+		final TrSignature sig = TrCrypto.sign(obj1, keyPair1.b);
+		logger.info(String.format("EC object signature size: %d%n", sig.signature.length));
+		Assert.assertTrue(TrCrypto.verify(sig, obj1, keyPair1.a));
+		Assert.assertFalse(TrCrypto.verify(sig, obj2, keyPair1.a));
+		Assert.assertFalse(TrCrypto.verify(sig, obj1, keyPair2.a));
+	}
+
+	@Test
+	public void testSharedKey() {
+		final TrSymKey key1 = TrCrypto.createSharedAesKey(keyPair1.b, keyPair2.a);
+		final TrSymKey key2 = TrCrypto.createSharedAesKey(keyPair2.b, keyPair1.a);
+		Assert.assertEquals(key1.toBytes(), key2.toBytes());
+		final ByteArraySegment pt = new ByteArraySegment("plaintext".getBytes());
+		Assert.assertEquals(key2.decrypt(key1.encrypt(pt)), pt);
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
+		final DataOutputStream dos = new DataOutputStream(baos);
+		TrSerializer.serializeTo(keyPair1.a, dos);
+		dos.flush();
+		logger.info(String.format("EC public key serialized size: %d %n", baos.size()));
+		TrSerializer.serializeTo(keyPair1.b, dos);
+		dos.flush();
+
+		final DataInputStream dis = new DataInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		final ECPublicKey pubKey = TrSerializer.deserializeFrom(ECPublicKey.class, dis);
+		final ECPrivateKey privKey = TrSerializer.deserializeFrom(ECPrivateKey.class, dis);
+		Assert.assertEquals(pubKey, keyPair1.a);
+
+		final TestObject obj = new TestObject();
+		obj.i1 = 7;
+		obj.str = "serialized";
+		Assert.assertTrue(TrCrypto.verify(TrCrypto.sign(obj, privKey), obj, pubKey));
+	}
+}
@@ -0,0 +1,62 @@
+package tahrir.io.crypto;
+
+import java.io.File;
+import java.security.interfaces.*;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.tools.*;
+
+public class KeyPairPoolTest {
+
+	@Test
+	public void refillsAfterTakeTest() throws Exception {
+		final KeyPairPool pool = new KeyPairPool(2, 1, null);
+		while (pool.available() < 2) {
+			Thread.sleep(50);
+		}
+		final Tuple2<RSAPublicKey, RSAPrivateKey> kp = pool.take();
+		final TrSignature sig = TrCrypto.sign("taken", kp.b);
+		Assert.assertTrue(TrCrypto.verify(sig, "taken", kp.a));
+
+		// The pool tops itself back up, and never hands out a key pair twice
+		while (pool.available() < 2) {
+			Thread.sleep(50);
+		}
+		for (int x = 0; x < 3; x++) {
+			Assert.assertFalse(pool.take().a.equals(kp.a));
+		}
+		pool.shutdown();
+	}
+
+	@Test
+	public void emptyPoolTest() {
+		final KeyPairPool pool = new KeyPairPool(0, 1, null);
+		Assert.assertEquals(pool.available(), 0);
+		Assert.assertNotNull(pool.take());
+		pool.shutdown();
+	}
+
+	@Test
+	public void reserveSurvivesRestartTest() throws Exception {
+		final File reserveDir = TrUtils.TestUtils.createTempDirectory();
+		final KeyPairPool pool = new KeyPairPool(2, 1, reserveDir);
+		while (pool.available() < 2) {
+			Thread.sleep(50);
+		}
+		pool.shutdown();
+
+		final KeyPairPool restarted = new KeyPairPool(2, 1, reserveDir);
+		Assert.assertTrue(restarted.available() >= 2);
+		final Tuple2<RSAPublicKey, RSAPrivateKey> kp = restarted.take();
+		restarted.shutdown();
+
+		// A key pair that was taken must never be handed out again
+		final KeyPairPool again = new KeyPairPool(0, 1, reserveDir);
+		while (again.available() > 0) {
+			Assert.assertFalse(again.take().a.equals(kp.a));
+		}
+		again.shutdown();
+	}
+}
@@ -0,0 +1,140 @@
+package tahrir.io.net;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.TrNode;
+import tahrir.io.crypto.KeyPairPool;
+import tahrir.io.net.TrPeerManager.Capabilities;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.io.net.sessions.AssimilateSessionImpl;
+import tahrir.tools.TrUtils.TestUtils;
+
+public class AssimilationControllerTest {
+
+	/**
+	 * Records the assimilations it would start rather than starting them
+	 */
+	private static class RecordingController extends AssimilationController {
+		private final TrNode node;
+
+		public final List<Started> started = Collections.synchronizedList(new ArrayList<Started>());
+
+		public final AtomicInteger maintainsScheduled = new AtomicInteger();
+
+		/**
+		 * Counted down whenever an assimilation is started
+		 */
+		public volatile CountDownLatch startLatch = new CountDownLatch(0);
+
+		public RecordingController(final TrNode node) {
+			super(node, node.peerManager);
+			this.node = node;
+		}
+
+		@Override
+		protected AssimilateSessionImpl createSession() {
+			return new RecordingSession(started.size(), node);
+		}
+
+		@Override
+		protected void startAssimilation(final AssimilateSessionImpl as, final TrPeerInfo relay,
+				final Runnable onFailure, final Runnable onDone) {
+			((RecordingSession) as).onDone = onDone;
+			started.add(new Started(as, relay, onFailure, onDone));
+			startLatch.countDown();
+		}
+
+		@Override
+		protected void scheduleMaintain() {
+			maintainsScheduled.incrementAndGet();
+			super.scheduleMaintain();
+		}
+	}
+
+	/**
+	 * Finishes when cancelled, as a started assimilation would
+	 */
+	private static class RecordingSession extends AssimilateSessionImpl {
+		public volatile Runnable onDone;
+
+		public RecordingSession(final int sessionId, final TrNode node) {
+			super(sessionId, node, null);
+		}
+
+		@Override
+		public void cancel() {
+			super.cancel();
+			onDone.run();
+		}
+	}
+
+	private static class Started {
+		public final AssimilateSessionImpl as;
+		public final TrPeerInfo relay;
+		public final Runnable onFailure, onDone;
+
+		public Started(final AssimilateSessionImpl as, final TrPeerInfo relay, final Runnable onFailure,
+				final Runnable onDone) {
+			this.as = as;
+			this.relay = relay;
+			this.onFailure = onFailure;
+			this.onDone = onDone;
+		}
+	}
+
+	@Test
+	public void slotTest() throws Exception {
+		final TrNode node = TestUtils.makeNode(8744, false, false, false, false, 10, 20);
+		for (int x = 1; x <= 3; x++) {
+			final TrPeerInfo peer = TestUtils.makePeer(8744 + x);
+			node.peerManager.addNewPeer(new RemoteNodeAddress(peer.remoteNodeAddress.physicalLocation, KeyPairPool
+					.getDefault().take().a), new Capabilities());
+		}
+		final RecordingController controller = new RecordingController(node);
+		// 7 short of minPeers, which is enough for the most at once
+		Assert.assertEquals(controller.getTargetConcurrency(), 3);
+
+		controller.maintain();
+		Assert.assertEquals(controller.getInProgress(), 3);
+		final Set<PhysicalNetworkLocation> relays = new HashSet<PhysicalNetworkLocation>();
+		for (final Started s : controller.started) {
+			relays.add(s.relay.remoteNodeAddress.physicalLocation);
+		}
+		Assert.assertEquals(relays.size(), 3, "Each assimilation should go through a different relay");
+
+		// An unreachable relay frees its slot, but isn't retried straight away
+		final Started unreachable = controller.started.get(0);
+		unreachable.onFailure.run();
+		Assert.assertEquals(controller.getInProgress(), 2);
+		Assert.assertEquals(controller.maintainsScheduled.get(), 0);
+		Assert.assertEquals(controller.started.size(), 3);
+		// and a late callback from it doesn't free another
+		unreachable.onDone.run();
+		Assert.assertEquals(controller.getInProgress(), 2);
+
+		controller.maintain();
+		Assert.assertEquals(controller.getInProgress(), 3);
+		Assert.assertEquals(controller.started.size(), 4);
+
+		// A finished assimilation is topped up straight away
+		controller.startLatch = new CountDownLatch(1);
+		controller.started.get(1).onDone.run();
+		Assert.assertTrue(controller.startLatch.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals(controller.maintainsScheduled.get(), 1);
+		Assert.assertEquals(controller.started.size(), 5);
+		Assert.assertEquals(controller.getInProgress(), 3);
+
+		controller.cancelAll();
+		Assert.assertEquals(controller.getInProgress(), 0);
+		for (final Started s : controller.started.subList(2, 5)) {
+			Assert.assertTrue(s.as.isFinished());
+		}
+		// Cancelled slots aren't topped up again as they finish
+		Assert.assertEquals(controller.maintainsScheduled.get(), 1);
+	}
+}
@@ -0,0 +1,32 @@
+package tahrir.io.net;
+
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.tools.TrUtils.TestUtils;
+
+public class LruEvictionPolicyTest {
+
+	@Test
+	public void evictsLeastRecentlyUsedTest() throws Exception {
+		final LruEvictionPolicy policy = new LruEvictionPolicy();
+		Assert.assertNull(policy.selectVictim());
+
+		final TrPeerInfo a = TestUtils.makePeer(1), b = TestUtils.makePeer(2), c = TestUtils.makePeer(3);
+		policy.added(a);
+		policy.added(b);
+		policy.added(c);
+		Assert.assertEquals(policy.selectVictim(), a.remoteNodeAddress.physicalLocation);
+
+		policy.used(a);
+		Assert.assertEquals(policy.selectVictim(), b.remoteNodeAddress.physicalLocation);
+
+		policy.removed(b.remoteNodeAddress.physicalLocation);
+		Assert.assertEquals(policy.selectVictim(), c.remoteNodeAddress.physicalLocation);
+
+		policy.used(c);
+		Assert.assertEquals(policy.selectVictim(), a.remoteNodeAddress.physicalLocation);
+	}
+}
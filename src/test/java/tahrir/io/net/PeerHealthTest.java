@@ -0,0 +1,30 @@
+package tahrir.io.net;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class PeerHealthTest {
+
+	@Test
+	public void lossyPeerScoresLowerTest() {
+		final PeerHealth good = new PeerHealth(), lossy = new PeerHealth();
+		for (int x = 0; x < 50; x++) {
+			good.sent(100, false);
+			good.acknowledged(1, 50);
+
+			lossy.sent(100, false);
+			lossy.sent(100, true);
+			lossy.acknowledged(2, 5050);
+		}
+		lossy.deliveryFailed(3);
+
+		Assert.assertEquals(good.getRttMs(), 50, 0.001);
+		Assert.assertEquals(good.getLossRate(), 0, 0.001);
+		// Retransmitted messages must not be used to measure RTT
+		Assert.assertEquals(lossy.getRttMs(), PeerHealth.PRIOR_RTT_MS, 0.001);
+		Assert.assertTrue(lossy.getLossRate() > 0.4);
+		Assert.assertEquals(lossy.getRetransmissions(), 50);
+		Assert.assertEquals(lossy.getDeliveryFailures(), 1);
+		Assert.assertTrue(good.getScore() > lossy.getScore());
+	}
+}
@@ -0,0 +1,59 @@
+package tahrir.io.net;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.Collections;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.io.net.udpV1.UdpNetworkLocation;
+import tahrir.tools.Persistence;
+import tahrir.tools.TrUtils.TestUtils;
+
+import com.google.common.base.Function;
+
+public class PeerInfoStoreTest {
+
+	@Test
+	public void journalReplayTest() throws Exception {
+		final File dir = TestUtils.createTempDirectory();
+		final File importDir = new File(dir, "import");
+		importDir.mkdir();
+		final File catalogue = new File(dir, "test.catalogue");
+		final File journal = new File(dir, "test.journal");
+		final UdpNetworkLocation addr = new UdpNetworkLocation(InetAddress.getByName("127.0.0.1"), 1234);
+		final File peerFile = new File(importDir, "a-peer");
+		Persistence.save(peerFile, new TrPeerInfo(new RemoteNodeAddress(addr, null)));
+
+		final PeerInfoStore store = new PeerInfoStore(catalogue, journal);
+		Assert.assertEquals(store.importFiles(importDir), 1);
+		// The seed file is left for next time
+		Assert.assertTrue(peerFile.exists());
+		Assert.assertTrue(store.contains(addr));
+		Assert.assertTrue(store.modify(addr, new Function<TrPeerInfo, Void>() {
+
+			public Void apply(final TrPeerInfo input) {
+				input.lastTimeUsed = 42;
+				return null;
+			}
+		}));
+		Assert.assertFalse(store.modify(new UdpNetworkLocation(InetAddress.getByName("127.0.0.1"), 4321), null));
+		// Nothing written back yet, but the change is in the journal
+		store.flushJournal();
+		Assert.assertTrue(journal.exists());
+		Assert.assertTrue(journal.length() > 0);
+
+		// As if we had crashed and restarted
+		final PeerInfoStore restarted = new PeerInfoStore(catalogue, journal);
+		Assert.assertEquals(restarted.get(addr).lastTimeUsed, 42);
+		Assert.assertEquals(restarted.sample(Collections.<PhysicalNetworkLocation> emptySet()).lastTimeUsed, 42);
+		Assert.assertNull(restarted.sample(Collections.<PhysicalNetworkLocation> singleton(addr)));
+		Assert.assertFalse(journal.exists());
+
+		// Importing the seeds again doesn't forget what we've learnt since
+		Assert.assertEquals(restarted.importFiles(importDir), 0);
+		Assert.assertEquals(restarted.get(addr).lastTimeUsed, 42);
+	}
+}
@@ -0,0 +1,67 @@
+package tahrir.io.net;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.io.net.TrPeerManager.Capabilities;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.tools.TrUtils.TestUtils;
+
+public class PeerTableTest {
+
+	private static TrPeerInfo peer(final int port, final boolean receivesBroadcasts) throws Exception {
+		final TrPeerInfo peer = TestUtils.makePeer(port, port * 1000);
+		peer.capabilities = new Capabilities();
+		peer.capabilities.receivesMessageBroadcasts = receivesBroadcasts;
+		return peer;
+	}
+
+	@Test
+	public void capabilityIndexTest() throws Exception {
+		final PeerTable table = new PeerTable();
+		final TrPeerInfo a = peer(1, true), b = peer(2, false);
+		table.put(a);
+		table.put(b);
+		Assert.assertEquals(table.size(), 2);
+		Assert.assertEquals(table.getBroadcastReceivers().size(), 1);
+		Assert.assertTrue(table.getBroadcastReceivers().contains(a));
+		Assert.assertTrue(table.getAssimilationRelays().isEmpty());
+		Assert.assertSame(table.getClosest(1900), b);
+
+		// Iteration shouldn't see peers added after it started
+		final Iterator<TrPeerInfo> it = table.getBroadcastReceivers().iterator();
+		b.capabilities.receivesMessageBroadcasts = true;
+		table.capabilitiesChanged(b);
+		Assert.assertSame(it.next(), a);
+		Assert.assertFalse(it.hasNext());
+		Assert.assertEquals(table.getBroadcastReceivers().size(), 2);
+
+		table.remove(a.remoteNodeAddress.physicalLocation);
+		Assert.assertFalse(table.contains(a.remoteNodeAddress.physicalLocation));
+		Assert.assertEquals(table.getBroadcastReceivers().size(), 1);
+		Assert.assertSame(table.getClosest(1100), b);
+	}
+
+	@Test
+	public void broadcastReceiverListenerTest() throws Exception {
+		final PeerTable table = new PeerTable();
+		final AtomicInteger joined = new AtomicInteger();
+		table.registerBroadcastReceiverListener(new Runnable() {
+			public void run() {
+				joined.incrementAndGet();
+			}
+		});
+		final TrPeerInfo a = peer(1, true), b = peer(2, false);
+		table.put(a);
+		table.put(b);
+		Assert.assertEquals(joined.get(), 1);
+		table.capabilitiesChanged(a);
+		Assert.assertEquals(joined.get(), 1, "Already receiving broadcasts");
+		b.capabilities.receivesMessageBroadcasts = true;
+		table.capabilitiesChanged(b);
+		Assert.assertEquals(joined.get(), 2);
+	}
+}
@@ -0,0 +1,57 @@
+package tahrir.io.net;
+
+import java.io.*;
+import java.util.*;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.tools.TrUtils.TestUtils;
+
+public class SeedPeerCatalogueTest {
+
+	@Test
+	public void bulkImportReopenAndCompactTest() throws Exception {
+		final File file = new File(TestUtils.createTempDirectory(), "seeds");
+		SeedPeerCatalogue catalogue = new SeedPeerCatalogue(file);
+		final List<TrPeerInfo> peers = new ArrayList<TrPeerInfo>();
+		for (int port = 1; port <= 2000; port++) {
+			peers.add(TestUtils.makePeer(port, port));
+		}
+		catalogue.putAll(peers);
+		Assert.assertEquals(catalogue.size(), 2000);
+
+		// Supersede every record a few times so that compaction kicks in
+		for (int x = 0; x < 3; x++) {
+			for (final TrPeerInfo p : peers) {
+				p.lastTimeUsed = x;
+			}
+			catalogue.putAll(peers);
+		}
+		final long uncompacted = file.length();
+		catalogue.compactIfWorthwhile();
+		Assert.assertTrue(file.length() < uncompacted / 3);
+		catalogue.close();
+
+		// Leave half a record on the end, as if we'd crashed while appending
+		final FileOutputStream fos = new FileOutputStream(file, true);
+		fos.write(new byte[] { 0, 0, 1, 0, 1, 2 });
+		fos.close();
+
+		catalogue = new SeedPeerCatalogue(file);
+		Assert.assertEquals(catalogue.size(), 2000);
+		final TrPeerInfo p = catalogue.get(peers.get(1234).remoteNodeAddress.physicalLocation);
+		Assert.assertEquals(p.topologyLocation, 1235);
+		Assert.assertEquals(p.lastTimeUsed, 2);
+		Assert.assertNull(catalogue.get(TestUtils.makePeer(5000, 5000).remoteNodeAddress.physicalLocation));
+
+		final Set<PhysicalNetworkLocation> exclude = new HashSet<PhysicalNetworkLocation>();
+		for (int x = 1; x < peers.size(); x++) {
+			exclude.add(peers.get(x).remoteNodeAddress.physicalLocation);
+		}
+		Assert.assertEquals(catalogue.sample(new Random(), exclude), peers.get(0).remoteNodeAddress.physicalLocation);
+		catalogue.put(TestUtils.makePeer(5000, 5000));
+		Assert.assertTrue(catalogue.contains(TestUtils.makePeer(5000, 5000).remoteNodeAddress.physicalLocation));
+	}
+}
@@ -0,0 +1,58 @@
+package tahrir.io.net;
+
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.io.net.TrPeerManager.TopologyLocationInfo;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.tools.TrUtils.TestUtils;
+
+import com.google.common.base.Predicate;
+
+public class TopologyOptimizerTest {
+
+	@Test
+	public void distanceClassTest() {
+		Assert.assertEquals(TopologyOptimizer.distanceClass(0), 0);
+		Assert.assertEquals(TopologyOptimizer.distanceClass(1), 0);
+		Assert.assertEquals(TopologyOptimizer.distanceClass(3), 1);
+		Assert.assertEquals(TopologyOptimizer.distanceClass(1024), 10);
+		Assert.assertEquals(TopologyOptimizer.distanceClass(Integer.MAX_VALUE / 2),
+				TopologyOptimizer.DISTANCE_CLASSES - 1);
+	}
+
+	@Test
+	public void probesAndSwapsTowardsTargetTest() throws Exception {
+		final PeerTable table = new PeerTable();
+		final TopologyLocationInfo locInfo = new TopologyLocationInfo(null);
+		locInfo.setLocation(1000000);
+		final TopologyOptimizer optimizer = new TopologyOptimizer(table, locInfo);
+
+		// Everything but the longest class has one link, and the class
+		// containing distance 1 << 20 has three
+		int port = 1;
+		for (int c = 1; c < TopologyOptimizer.DISTANCE_CLASSES - 1; c++) {
+			table.put(TestUtils.makePeer(port++, 1000000 + (1 << c)));
+		}
+		final TrPeerInfo crowded1 = TestUtils.makePeer(port++, 1000000 - (1 << 20));
+		final TrPeerInfo crowded2 = TestUtils.makePeer(port++, 1000000 + (1 << 20) + 5);
+		table.put(crowded1);
+		table.put(crowded2);
+
+		for (int x = 0; x < 100; x++) {
+			final int probe = optimizer.chooseProbeLocation();
+			Assert.assertEquals(TopologyOptimizer.distanceClass(TopologyRing.distance(probe, 1000000)),
+					TopologyOptimizer.DISTANCE_CLASSES - 1);
+		}
+
+		// A new peer in an empty class may replace one from the crowded class
+		final Predicate<TrPeerInfo> replaceable = optimizer.getImprovingReplacements(1000000 + (1 << 29) + 1);
+		Assert.assertNotNull(replaceable);
+		Assert.assertTrue(replaceable.apply(crowded1));
+		Assert.assertFalse(replaceable.apply(table.get(TestUtils.makePeer(1, 0).remoteNodeAddress.physicalLocation)));
+
+		// But a new peer in the crowded class may not replace anything
+		Assert.assertNull(optimizer.getImprovingReplacements(1000000 + (1 << 20) + 100));
+	}
+}
@@ -0,0 +1,61 @@
+package tahrir.io.net;
+
+import java.util.*;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.tools.TrUtils.TestUtils;
+
+public class TopologyRingTest {
+
+	@Test
+	public void closestMatchesLinearScanTest() throws Exception {
+		final Random r = new Random(0);
+		final TopologyRing ring = new TopologyRing();
+		final List<TrPeerInfo> all = new ArrayList<TrPeerInfo>();
+		for (int x = 0; x < 200; x++) {
+			final TrPeerInfo p = TestUtils.makePeer(x, Math.abs(r.nextInt()));
+			all.add(p);
+			ring.add(p);
+		}
+		for (int x = 0; x < 1000; x++) {
+			final int loc = Math.abs(r.nextInt());
+			int bestDistance = Integer.MAX_VALUE;
+			for (final TrPeerInfo p : all) {
+				bestDistance = Math.min(bestDistance, TopologyRing.distance(p.topologyLocation, loc));
+			}
+			Assert.assertEquals(TopologyRing.distance(ring.getClosest(loc).topologyLocation, loc), bestDistance);
+
+			final List<TrPeerInfo> nearest = ring.getNearest(loc, 5);
+			Assert.assertEquals(nearest.size(), 5);
+			Assert.assertEquals(TopologyRing.distance(nearest.get(0).topologyLocation, loc), bestDistance);
+			for (int y = 1; y < nearest.size(); y++) {
+				Assert.assertTrue(TopologyRing.distance(nearest.get(y - 1).topologyLocation, loc) <= TopologyRing
+						.distance(nearest.get(y).topologyLocation, loc));
+			}
+		}
+	}
+
+	@Test
+	public void wrapAroundTest() throws Exception {
+		final TopologyRing ring = new TopologyRing();
+		final TrPeerInfo low = TestUtils.makePeer(1, 20);
+		final TrPeerInfo middle = TestUtils.makePeer(2, Integer.MAX_VALUE / 2);
+		final TrPeerInfo high = TestUtils.makePeer(3, Integer.MAX_VALUE - 10);
+		ring.add(low);
+		ring.add(middle);
+		ring.add(high);
+
+		Assert.assertSame(ring.getClosest(Integer.MAX_VALUE - 1), high);
+		Assert.assertSame(ring.getClosest(15), low);
+		Assert.assertEquals(ring.getNearest(Integer.MAX_VALUE, 2), Arrays.asList(high, low));
+		Assert.assertEquals(ring.getNearest(5, 10).size(), 3);
+		Assert.assertEquals(ring.getRange(Integer.MAX_VALUE - 100, 100), Arrays.asList(high, low));
+
+		ring.remove(high.remoteNodeAddress.physicalLocation);
+		Assert.assertSame(ring.getClosest(Integer.MAX_VALUE - 1), low);
+		Assert.assertEquals(ring.size(), 2);
+	}
+}
@@ -2,10 +2,15 @@ package tahrir.io.net.microblogging;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
+import tahrir.io.crypto.KeyPairPool;
 import tahrir.io.crypto.TrCrypto;
+import tahrir.io.net.microblogging.ContactBook.ContactAddedListener;
 
 import java.io.File;
 import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class ContactBookTest {
 	@Test(enabled = false)
@@ -30,4 +35,22 @@ public class ContactBookTest {
 		Assert.assertTrue(cb.hasContact(user2Key));
 		Assert.assertTrue(cb.getAlias(user2Key).equals(name2));
 	}
+
+	@Test
+	public void contactAddedListenerTest() throws Exception {
+		final ContactBook cb = new ContactBook(File.createTempFile("tahrir", "contacts_listener_test"));
+		final List<RSAPublicKey> added = new ArrayList<RSAPublicKey>();
+		cb.registerContactAddedListener(new ContactAddedListener() {
+			public void contactAdded(final RSAPublicKey publicKey) {
+				added.add(publicKey);
+			}
+		});
+
+		final RSAPublicKey userKey = KeyPairPool.getDefault().take().a;
+		cb.addContact("name", userKey);
+		// Only a new alias, so nothing new to fetch
+		cb.addContact("new name", userKey);
+		Assert.assertEquals(added, Arrays.asList(userKey));
+		Assert.assertEquals(cb.getAlias(userKey), "new name");
+	}
 }
@@ -0,0 +1,46 @@
+package tahrir.io.net.microblogging;
+
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.io.net.PeerTable;
+import tahrir.io.net.TrPeerManager.TopologyLocationInfo;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+import tahrir.io.net.microblogging.microblogs.GeneralMicroblogInfo;
+import tahrir.tools.TrUtils.TestUtils;
+
+public class GossipTunerTest {
+
+	@Test
+	public void fanoutTest() throws Exception {
+		final PeerTable table = new PeerTable();
+		final TopologyLocationInfo locInfo = new TopologyLocationInfo(null);
+		locInfo.setLocation(0);
+		// Peers spaced as if there were 1000 nodes around the ring
+		final int spacing = Integer.MAX_VALUE / 1000;
+		for (int x = 1; x <= 8; x++) {
+			table.put(TestUtils.makePeer(x, x % 2 == 0 ? x / 2 * spacing : Integer.MAX_VALUE - (x + 1) / 2
+					* spacing));
+		}
+		final GossipTuner tuner = new GossipTuner(table, locInfo);
+		Assert.assertEquals(tuner.estimateNetworkSize(), 1000, 50);
+		// ln(1000) is about 7
+		Assert.assertEquals(tuner.getFanout(), 8);
+
+		for (int x = 0; x < 100; x++) {
+			tuner.offerAnswered(4, 0);
+		}
+		Assert.assertTrue(tuner.getDuplicateRate() > 0.99);
+		Assert.assertEquals(tuner.getFanout(), 7);
+	}
+
+	@Test
+	public void pushOnlyWhileFreshTest() {
+		final GossipTuner tuner = new GossipTuner(new PeerTable(), new TopologyLocationInfo(null));
+		Assert.assertTrue(tuner.shouldPush(new BroadcastMicroblog("new", new GeneralMicroblogInfo("", "", null, System
+				.currentTimeMillis()))));
+		Assert.assertFalse(tuner.shouldPush(new BroadcastMicroblog("old", new GeneralMicroblogInfo("", "", null, System
+				.currentTimeMillis() - 24 * 60 * 60 * 1000))));
+	}
+}
@@ -0,0 +1,146 @@
+package tahrir.io.net.microblogging;
+
+import java.util.*;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.TrNode;
+import tahrir.io.crypto.KeyPairPool;
+import tahrir.io.net.PhysicalNetworkLocation;
+import tahrir.io.net.RemoteNodeAddress;
+import tahrir.io.net.TrPeerManager.Capabilities;
+import tahrir.io.net.TrPeerManager.TrPeerInfo;
+import tahrir.io.net.microblogging.containers.MicroblogsForBroadcast;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+import tahrir.tools.TrUtils.TestUtils;
+
+public class MicroblogBroadcastSchedulerTest {
+	private static int port = 8784;
+
+	/**
+	 * Records the offers it would make rather than making them
+	 */
+	private static class RecordingScheduler extends MicroblogBroadcastScheduler {
+		public final List<Started> started = Collections.synchronizedList(new ArrayList<Started>());
+
+		public RecordingScheduler(final TrNode node, final MicroblogsForBroadcast mbsForBroadcast) {
+			super(node, mbsForBroadcast);
+		}
+
+		@Override
+		protected void startOffer(final List<BroadcastMicroblog> microblogs, final PhysicalNetworkLocation peer,
+				final Runnable onDone) {
+			started.add(new Started(microblogs, peer, onDone));
+		}
+
+		public Started get(final int x) {
+			return started.get(x);
+		}
+
+		public void awaitOffers(final int count) throws InterruptedException {
+			for (int x = 0; x < 50 && started.size() < count; x++) {
+				Thread.sleep(100);
+			}
+			Assert.assertEquals(started.size(), count);
+		}
+	}
+
+	private static class Started {
+		public final List<BroadcastMicroblog> microblogs;
+		public final PhysicalNetworkLocation peer;
+		public final Runnable onDone;
+
+		public Started(final List<BroadcastMicroblog> microblogs, final PhysicalNetworkLocation peer,
+				final Runnable onDone) {
+			this.microblogs = microblogs;
+			this.peer = peer;
+			this.onDone = onDone;
+		}
+	}
+
+	private static TrNode makeNodeWithReceivers(final int receivers) throws Exception {
+		final TrNode node = TestUtils.makeNode(port++, false, false, false, true, 1, 10);
+		final Capabilities capabilities = new Capabilities();
+		capabilities.receivesMessageBroadcasts = true;
+		for (int x = 0; x < receivers; x++) {
+			final TrPeerInfo peer = TestUtils.makePeer(port++);
+			node.peerManager.addNewPeer(new RemoteNodeAddress(peer.remoteNodeAddress.physicalLocation, KeyPairPool
+					.getDefault().take().a), capabilities);
+		}
+		return node;
+	}
+
+	@Test
+	public void slotTest() throws Exception {
+		final TrNode node = makeNodeWithReceivers(3);
+		node.config.broadcast.maxOffersInFlight = 2;
+		node.config.broadcast.maxOffersPerPeer = 1;
+		node.config.broadcast.offerTimeoutSeconds = 1;
+		final MicroblogsForBroadcast mbs = new MicroblogsForBroadcast();
+		final BroadcastMicroblog a = new BroadcastMicroblog("a", null), b = new BroadcastMicroblog("b", null);
+		mbs.insert(a);
+		mbs.insert(b);
+		// Only now, so that both are broadcast together
+		final RecordingScheduler scheduler = new RecordingScheduler(node, mbs);
+		scheduler.setupForNextMicroblog();
+
+		// Both microblogs go to each peer together, one offer per peer
+		scheduler.awaitOffers(2);
+		Assert.assertEquals(scheduler.getOffersInFlight(), 2);
+		Assert.assertFalse(scheduler.get(0).peer.equals(scheduler.get(1).peer));
+		for (final Started s : scheduler.started) {
+			Assert.assertEquals(new HashSet<BroadcastMicroblog>(s.microblogs), new HashSet<BroadcastMicroblog>(
+					Arrays.asList(a, b)));
+		}
+
+		// A finished offer makes room for the last peer
+		scheduler.get(0).onDone.run();
+		scheduler.awaitOffers(3);
+		Assert.assertEquals(scheduler.getOffersInFlight(), 2);
+		final Set<PhysicalNetworkLocation> peers = new HashSet<PhysicalNetworkLocation>();
+		for (final Started s : scheduler.started) {
+			peers.add(s.peer);
+		}
+		Assert.assertEquals(peers.size(), 3);
+
+		// The rest never answer, so time out
+		for (int x = 0; x < 50 && scheduler.getOffersInFlight() > 0; x++) {
+			Thread.sleep(100);
+		}
+		Assert.assertEquals(scheduler.getOffersInFlight(), 0);
+		// and an answer after that doesn't free a slot twice
+		scheduler.get(1).onDone.run();
+		Assert.assertEquals(scheduler.getOffersInFlight(), 0);
+		Assert.assertEquals(scheduler.started.size(), 3);
+	}
+
+	@Test
+	public void smallBatchTest() throws Exception {
+		final TrNode node = makeNodeWithReceivers(3);
+		node.config.broadcast.maxOffersPerPeer = 1;
+		node.config.broadcast.batchSize = 1;
+		final MicroblogsForBroadcast mbs = new MicroblogsForBroadcast();
+		final BroadcastMicroblog a = new BroadcastMicroblog("a", null), b = new BroadcastMicroblog("b", null);
+		mbs.insert(a);
+		mbs.insert(b);
+		final RecordingScheduler scheduler = new RecordingScheduler(node, mbs);
+		scheduler.setupForNextMicroblog();
+
+		// Answer every offer until there are no more
+		final Set<String> offered = new HashSet<String>();
+		int answered = 0;
+		for (int x = 0; x < 50 && offered.size() < 6; x++) {
+			for (; answered < scheduler.started.size(); answered++) {
+				final Started started = scheduler.get(answered);
+				Assert.assertEquals(started.microblogs.size(), 1);
+				Assert.assertTrue(offered.add(started.microblogs.get(0).message + " to " + started.peer),
+						"Offered the same microblog to the same peer twice");
+				started.onDone.run();
+			}
+			Thread.sleep(100);
+		}
+		// Filling a full batch mustn't cost any microblog a peer
+		Assert.assertEquals(offered.size(), 6, "Every microblog should reach every peer: " + offered);
+	}
+}
@@ -0,0 +1,122 @@
+package tahrir.io.net.microblogging;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.TrNode;
+import tahrir.io.net.PhysicalNetworkLocation;
+import tahrir.io.net.TrSessionImpl;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+import tahrir.tools.TrUtils.TestUtils;
+
+public class MicroblogBroadcastSessionTest {
+	private static int port = 8804;
+
+	/**
+	 * Talks to a {@link RecordingSession} rather than to a real peer
+	 */
+	private static class StubbedSession extends MicroblogBroadcastSessionImpl {
+		public final RecordingSession remote = new RecordingSession();
+
+		public StubbedSession(final TrNode node) {
+			super(0, node, node.sessionMgr);
+		}
+
+		@Override
+		protected MicroblogBroadcastSession remoteBroadcastSession(final PhysicalNetworkLocation peer) {
+			return remote;
+		}
+	}
+
+	private static class RecordingSession implements MicroblogBroadcastSession {
+		public ArrayList<Long> offered;
+		public final List<List<BroadcastMicroblog>> inserted = new ArrayList<List<BroadcastMicroblog>>();
+		public Long wanted;
+		public int finished = 0;
+
+		public void registerFailureListener(final Runnable listener) {
+		}
+
+		public void offerInventory(final ArrayList<Long> mbHashes) {
+			offered = mbHashes;
+		}
+
+		public void insertMicroblogs(final ArrayList<BroadcastMicroblog> mbs) {
+			inserted.add(mbs);
+		}
+
+		public void wantedAre(final long wanted) {
+			this.wanted = wanted;
+		}
+
+		public void keysUnknownFor(final long unknown) {
+		}
+
+		public void sessionFinished() {
+			finished++;
+		}
+	}
+
+	@Test
+	public void bitmapTest() throws Exception {
+		final TrNode node = TestUtils.makeNode(port++, false, false, false, true, 0, 0);
+		final PhysicalNetworkLocation peer = TestUtils.makePeer(port++).remoteNodeAddress.physicalLocation;
+		final BroadcastMicroblog a = new BroadcastMicroblog("a", null);
+		final BroadcastMicroblog b = new BroadcastMicroblog("b", null);
+		final BroadcastMicroblog c = new BroadcastMicroblog("c", null);
+		final StubbedSession sess = new StubbedSession(node);
+		final AtomicInteger finished = new AtomicInteger();
+		sess.startBroadcast(Arrays.asList(a, b, c), peer, new Runnable() {
+			public void run() {
+				finished.incrementAndGet();
+			}
+		});
+		Assert.assertEquals(sess.remote.offered, Arrays.asList(a.getDedupHash(), b.getDedupHash(), c.getDedupHash()));
+
+		// Bits beyond the batch are ignored, and don't count as wanted
+		sess.wantedAre(0x5 | 1l << 3 | 1l << 63);
+		Assert.assertEquals(sess.remote.inserted, Arrays.asList(Arrays.asList(a, c)));
+		final double duplicateRate = node.mbClasses.mbScheduler.tuner.getDuplicateRate();
+		Assert.assertTrue(duplicateRate >= 0 && duplicateRate <= 1, "Duplicate rate is " + duplicateRate);
+		// nor does a second answer
+		sess.wantedAre(-1l);
+		Assert.assertEquals(sess.remote.inserted.size(), 1);
+
+		// Bits are of what was sent, not what was offered
+		sess.keysUnknownFor(0x2 | 1l << 2 | 1l << 40);
+		Assert.assertEquals(sess.remote.inserted.get(1), Arrays.asList(c));
+		Assert.assertEquals(finished.get(), 0);
+
+		// Keys are only sent in full once
+		sess.keysUnknownFor(0x1);
+		Assert.assertEquals(sess.remote.inserted.size(), 2);
+		Assert.assertEquals(finished.get(), 1);
+	}
+
+	@Test
+	public void oversizedOfferTest() throws Exception {
+		final TrNode node = TestUtils.makeNode(port++, false, false, false, true, 0, 0);
+		final PhysicalNetworkLocation peer = TestUtils.makePeer(port++).remoteNodeAddress.physicalLocation;
+		final StubbedSession sess = new StubbedSession(node);
+		final ArrayList<Long> hashes = new ArrayList<Long>();
+		for (long x = 0; x < MicroblogBroadcastSessionImpl.MAX_BATCH_SIZE + 10; x++) {
+			hashes.add(x);
+		}
+		TrSessionImpl.sender.set(peer);
+		try {
+			sess.offerInventory(hashes);
+		} finally {
+			TrSessionImpl.sender.remove();
+		}
+		// Only as many as a bitmap can answer for
+		Assert.assertEquals(sess.remote.wanted, Long.valueOf(-1l));
+
+		// An answer to an offer we never made
+		sess.wantedAre(-1l);
+		sess.keysUnknownFor(-1l);
+		Assert.assertTrue(sess.remote.inserted.isEmpty());
+	}
+}
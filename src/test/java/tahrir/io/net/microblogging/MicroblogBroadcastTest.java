@@ -21,21 +21,21 @@ public class MicroblogBroadcastTest {
 		TrUtils.TestUtils.createBidirectionalConnection(sendingNode, receivingNode);
 		for (final TrPeerInfo pi :sendingNode.peerManager.peers.values()) {
 			pi.capabilities.receivesMessageBroadcasts = true;
+			sendingNode.peerManager.peerTable.capabilitiesChanged(pi);
 		}
 	}
 
 	@Test
 	public void simpleTest() throws Exception {
 		final BroadcastMicroblog testMb = new BroadcastMicroblog(sendingNode, "Hello world");
-		sendingNode.mbClasses.mbsForBroadcast.insert(testMb);
 
 		// stop the receiver from broadcasting
 		receivingNode.mbClasses.mbScheduler.disable();
+		// stop broadcasts starting by themselves when microblogs are queued
+		sendingNode.mbClasses.mbScheduler.disable();
 
-		// don't want initial wait
+		sendingNode.mbClasses.mbsForBroadcast.insert(testMb);
 		sendingNode.mbClasses.mbScheduler.setupForNextMicroblog();
-		// stop any more broadcasts
-		sendingNode.mbClasses.mbScheduler.disable();
 
 		for (int x=0; x<50; x++) {
 			Thread.sleep(20);
@@ -51,16 +51,17 @@ public class MicroblogBroadcastTest {
 	public void priorityTest() throws Exception {
 		final BroadcastMicroblog testMb0 = new BroadcastMicroblog(sendingNode, "You SHOULD have this microblog!", 0);
 		final BroadcastMicroblog testMb1 = new BroadcastMicroblog(sendingNode, "You should NOT have this microblog!", Integer.MAX_VALUE);
-		sendingNode.mbClasses.mbsForBroadcast.insert(testMb1);
-		sendingNode.mbClasses.mbsForBroadcast.insert(testMb0);
+		// only broadcast one microblog at a time so that we can see which goes first
+		sendingNode.config.broadcast.maxConcurrentMicroblogs = 1;
 
 		// stop the receiver from broadcasting
 		receivingNode.mbClasses.mbScheduler.disable();
+		// stop broadcasts starting by themselves when microblogs are queued
+		sendingNode.mbClasses.mbScheduler.disable();
 
-		// don't want initial wait
+		sendingNode.mbClasses.mbsForBroadcast.insert(testMb1);
+		sendingNode.mbClasses.mbsForBroadcast.insert(testMb0);
 		sendingNode.mbClasses.mbScheduler.setupForNextMicroblog();
-		// stop any more broadcasts
-		sendingNode.mbClasses.mbScheduler.disable();
 
 		for (int x=0; x<75; x++) {
 			Thread.sleep(50);
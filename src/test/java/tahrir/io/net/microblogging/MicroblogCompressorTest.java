@@ -0,0 +1,109 @@
+package tahrir.io.net.microblogging;
+
+import java.security.interfaces.RSAPublicKey;
+
+import nu.xom.ParsingException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.io.crypto.TrCrypto;
+import tahrir.io.net.microblogging.MicroblogCompressor.KnownKeys;
+import tahrir.io.net.microblogging.MicroblogCompressor.UnknownKeyException;
+import tahrir.io.net.microblogging.MicroblogParser.MentionPart;
+import tahrir.io.net.microblogging.MicroblogParser.ParsedPart;
+import tahrir.io.net.microblogging.MicroblogParser.PositionComparator;
+import tahrir.io.net.microblogging.MicroblogParser.TextPart;
+import tahrir.tools.ByteArraySegment;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.*;
+
+public class MicroblogCompressorTest {
+	private static final Logger logger = LoggerFactory.getLogger(MicroblogCompressorTest.class);
+
+	private static final RSAPublicKey friend = TrCrypto.createRsaKeyPair().a;
+
+	private static final KnownKeys knowsFriend = new KnownKeys() {
+
+		public RSAPublicKey getByKeyId(final long keyId) {
+			return keyId == MicroblogCompressor.keyId(friend) ? friend : null;
+		}
+	};
+
+	private static final KnownKeys knowsNobody = new KnownKeys() {
+
+		public RSAPublicKey getByKeyId(final long keyId) {
+			return null;
+		}
+	};
+
+	private static String microblog(final Object... parts) {
+		final SortedMultiset<ParsedPart> parsedParts = TreeMultiset.create(new PositionComparator());
+		for (int x = 0; x < parts.length; x++) {
+			if (parts[x] instanceof RSAPublicKey) {
+				parsedParts.add(new MentionPart(x, (RSAPublicKey) parts[x], "friend"));
+			} else {
+				parsedParts.add(new TextPart(x, (String) parts[x]));
+			}
+		}
+		return MicroblogParser.getXML(parsedParts);
+	}
+
+	private static void assertRoundTrip(final String xml) throws Exception {
+		final ByteArraySegment compressed = MicroblogCompressor.compress(xml, false);
+		Assert.assertNotNull(compressed);
+		Assert.assertEquals(MicroblogCompressor.decompress(compressed, knowsFriend), xml);
+		final ByteArraySegment fullKeys = MicroblogCompressor.compress(xml, true);
+		Assert.assertEquals(MicroblogCompressor.decompress(fullKeys, knowsNobody), xml);
+	}
+
+	@Test
+	public void roundTripTest() throws Exception {
+		assertRoundTrip(microblog("Meeting at the library tomorrow at noon, bring friends!"));
+		assertRoundTrip(microblog(""));
+		assertRoundTrip(microblog("a"));
+		assertRoundTrip(microblog("Thanks ", friend, " and ", friend, " & <everyone> else"));
+		// Not in the corpus table, so sent as UTF-8
+		assertRoundTrip(microblog("伴随着 Jython 的出现", friend));
+	}
+
+	@Test
+	public void nonCanonicalTest() throws Exception {
+		// Would decompress to different XML and so break the signature
+		Assert.assertNull(MicroblogCompressor.compress("<mb>  <txt>hello</txt></mb>", false));
+		Assert.assertNull(MicroblogCompressor.compress("not xml", false));
+	}
+
+	@Test(expectedExceptions = ParsingException.class)
+	public void corruptTest() throws Exception {
+		final ByteArraySegment compressed = MicroblogCompressor.compress(microblog("Thanks ", friend), true);
+		MicroblogCompressor.decompress(compressed.subsegment(0, compressed.length - 20), knowsNobody);
+	}
+
+	@Test(expectedExceptions = UnknownKeyException.class)
+	public void unknownKeyTest() throws Exception {
+		final ByteArraySegment compressed = MicroblogCompressor.compress(microblog("Thanks ", friend), false);
+		MicroblogCompressor.decompress(compressed, knowsNobody);
+	}
+
+	/**
+	 * Checks that typical text, with or without a mention, takes under half
+	 * of the space it does as XML
+	 */
+	@Test
+	public void sizeTest() throws Exception {
+		final String[] xmls = {
+				microblog("Does anyone know if the trains are running tonight? I need to get home before the curfew."),
+				microblog("Thank you ", friend, " for the blankets, the families at the station are very grateful."),
+				microblog("Good morning all, coffee in hand and ready for another day.") };
+		for (final String xml : xmls) {
+			final int xmlBytes = xml.getBytes(Charsets.UTF_8).length;
+			final int compressedBytes = MicroblogCompressor.compress(xml, false).length;
+			logger.info("Compressed {} bytes of XML to {}", xmlBytes, compressedBytes);
+			Assert.assertTrue(compressedBytes * 2 < xmlBytes);
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package tahrir.io.net.microblogging.containers;
+
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.io.crypto.TrCrypto;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog.SignedContent;
+import tahrir.io.net.microblogging.microblogs.GeneralMicroblogInfo;
+import tahrir.tools.Tuple2;
+
+public class AuthorFeedsTest {
+
+	private static BroadcastMicroblog signed(final Tuple2<RSAPublicKey, RSAPrivateKey> author, final String message,
+			final long sequence, final byte[] previousHash) throws Exception {
+		final BroadcastMicroblog mb = new BroadcastMicroblog(message, new GeneralMicroblogInfo("", "author", author.a,
+				System.currentTimeMillis(), sequence, previousHash));
+		final SignedContent content = new SignedContent();
+		content.message = message;
+		content.sequence = sequence;
+		content.previousHash = previousHash;
+		mb.signature = TrCrypto.sign(content, author.b);
+		return mb;
+	}
+
+	@Test
+	public void chainTest() throws Exception {
+		final Tuple2<RSAPublicKey, RSAPrivateKey> author = TrCrypto.createRsaKeyPair();
+		final BroadcastMicroblog first = signed(author, "first", 1, null);
+		final BroadcastMicroblog second = signed(author, "second", 2, first.getFeedHash());
+		final BroadcastMicroblog third = signed(author, "third", 3, second.getFeedHash());
+		final BroadcastMicroblog forged = signed(author, "forged", 2, new byte[32]);
+
+		final AuthorFeeds feeds = new AuthorFeeds(10, 10);
+		Assert.assertEquals(feeds.getLatestSequence(author.a), 0);
+		Assert.assertTrue(feeds.add(first));
+		Assert.assertTrue(feeds.add(third));
+		Assert.assertEquals(feeds.getLatestSequence(author.a), 1, "There's a gap after the first");
+		Assert.assertFalse(feeds.add(forged), "Doesn't link to its neighbours");
+		Assert.assertTrue(feeds.add(second));
+		Assert.assertEquals(feeds.getLatestSequence(author.a), 3);
+
+		final ArrayList<BroadcastMicroblog> from2 = feeds.getFrom(author.a, 2, 10);
+		Assert.assertEquals(from2.size(), 2);
+		Assert.assertSame(from2.get(0), second);
+		Assert.assertSame(from2.get(1), third);
+
+		// Tampering with the sequence number breaks the signature
+		final BroadcastMicroblog moved = new BroadcastMicroblog("third", new GeneralMicroblogInfo("", "author", author.a,
+				System.currentTimeMillis(), 4, third.getFeedHash()));
+		moved.signature = third.signature;
+		Assert.assertFalse(feeds.add(moved));
+	}
+}
@@ -0,0 +1,116 @@
+package tahrir.io.net.microblogging.containers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.TrConstants;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+
+public class MicroblogArchiveTest {
+
+	@Test
+	public void digestsFindDifferingBucketsTest() {
+		final MicroblogArchive a = new MicroblogArchive(10, 100);
+		final MicroblogArchive b = new MicroblogArchive(10, 100);
+		final BroadcastMicroblog one = new BroadcastMicroblog("one", null);
+		final BroadcastMicroblog two = new BroadcastMicroblog("two", null);
+		final BroadcastMicroblog three = new BroadcastMicroblog("three", null);
+
+		// Same microblogs in a different order give the same digests
+		Assert.assertTrue(a.add(one));
+		Assert.assertTrue(a.add(two));
+		Assert.assertFalse(a.add(two));
+		Assert.assertTrue(b.add(two));
+		Assert.assertTrue(b.add(one));
+		final long first = a.getFirstBucket();
+		Assert.assertEquals(a.getDigests(first, 10), b.getDigests(first, 10));
+
+		Assert.assertTrue(b.add(three));
+		final ArrayList<Long> differing = b.getDifferingBuckets(first, a.getDigests(first, 10));
+		Assert.assertEquals(differing, Arrays.asList(a.getCurrentBucket()));
+
+		final ArrayList<Long> slices = a.getDifferingSlices(differing, b.getSliceDigests(differing));
+		Assert.assertEquals(slices.size(), 1);
+		final ArrayList<Long> hashes = b.getSliceHashes(slices);
+		Assert.assertTrue(hashes.contains(three.getDedupHash()));
+		int missing = 0;
+		for (final Long hash : hashes) {
+			if (!a.contains(hash)) {
+				missing++;
+				Assert.assertSame(b.get(hash), three);
+			}
+		}
+		Assert.assertEquals(missing, 1);
+	}
+
+	@Test
+	public void slicesNarrowTheDifferenceTest() {
+		final MicroblogArchive a = new MicroblogArchive(10, 100);
+		final MicroblogArchive b = new MicroblogArchive(10, 100);
+		for (int x = 0; x < 100; x++) {
+			final BroadcastMicroblog mb = new BroadcastMicroblog("microblog " + x, null);
+			b.add(mb);
+			if (x != 42) {
+				a.add(mb);
+			}
+		}
+		final long first = a.getFirstBucket();
+		final ArrayList<Long> differing = b.getDifferingBuckets(first, a.getDigests(first, 10));
+		Assert.assertEquals(differing.size(), 1);
+		final ArrayList<Long> slices = a.getDifferingSlices(differing, b.getSliceDigests(differing));
+		Assert.assertEquals(slices.size(), 1);
+		final ArrayList<Long> hashes = b.getSliceHashes(slices);
+		Assert.assertTrue(hashes.contains(new BroadcastMicroblog("microblog 42", null).getDedupHash()));
+		Assert.assertTrue(hashes.size() < 100 / TrConstants.MICROBLOG_ARCHIVE_SLICES * 3,
+				"Sent " + hashes.size() + " hashes for a difference of one");
+	}
+
+	@Test
+	public void fullBucketTest() {
+		final MicroblogArchive archive = new MicroblogArchive(10, 1);
+		Assert.assertTrue(archive.add(new BroadcastMicroblog("one", null)));
+		Assert.assertFalse(archive.add(new BroadcastMicroblog("two", null)));
+	}
+
+	@Test
+	public void peerChoosesDigestsTest() {
+		final MicroblogArchive archive = new MicroblogArchive(10, 100);
+		Assert.assertTrue(archive.add(new BroadcastMicroblog("one", null)));
+		final long first = archive.getFirstBucket();
+		final long current = archive.getCurrentBucket();
+
+		// Only the buckets we keep are compared
+		final ArrayList<Long> digests = new ArrayList<Long>();
+		for (int x = 0; x < 10; x++) {
+			digests.add(1l);
+		}
+		Assert.assertEquals(archive.getDifferingBuckets(current - 4, digests).size(), 5);
+		Assert.assertEquals(archive.getDifferingBuckets(first - 5, digests).size(), 5);
+		Assert.assertTrue(archive.getDifferingBuckets(current + 1, digests).isEmpty());
+		Assert.assertTrue(archive.getDifferingBuckets(Long.MIN_VALUE, digests).isEmpty());
+
+		// Missing digests are skipped
+		digests.set(9, null);
+		Assert.assertEquals(archive.getDifferingBuckets(first, digests).size(), 9);
+
+		// Asking about more buckets than we keep gets nothing
+		digests.add(1l);
+		Assert.assertTrue(archive.getDifferingBuckets(first, digests).isEmpty());
+		Assert.assertTrue(archive.getDifferingBuckets(first, null).isEmpty());
+
+		// and slice digests must fit the buckets
+		final ArrayList<Long> buckets = new ArrayList<Long>(Arrays.asList(current, null));
+		final ArrayList<Long> sliceDigests = new ArrayList<Long>();
+		for (int x = 0; x < TrConstants.MICROBLOG_ARCHIVE_SLICES * 2; x++) {
+			sliceDigests.add(x == 0 ? null : 1l);
+		}
+		Assert.assertEquals(archive.getDifferingSlices(buckets, sliceDigests).size(),
+				TrConstants.MICROBLOG_ARCHIVE_SLICES - 1);
+		sliceDigests.add(1l);
+		Assert.assertTrue(archive.getDifferingSlices(buckets, sliceDigests).isEmpty());
+		Assert.assertTrue(archive.getSliceHashes(Arrays.asList(-1l, null, Long.MAX_VALUE)).isEmpty());
+	}
+}
@@ -0,0 +1,100 @@
+package tahrir.io.net.microblogging.containers;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.TrConstants;
+import tahrir.io.net.microblogging.microblogs.BroadcastMicroblog;
+import tahrir.io.net.microblogging.microblogs.GeneralMicroblogInfo;
+
+public class MicroblogsForBroadcastTest {
+
+	private static BroadcastMicroblog mb(final String message, final int priority) {
+		final BroadcastMicroblog mb = new BroadcastMicroblog(message, null);
+		mb.priority = priority;
+		return mb;
+	}
+
+	@Test
+	public void evictionAndPriorityTest() {
+		final MicroblogsForBroadcast mbs = new MicroblogsForBroadcast(3, new DecayingBroadcastPolicy());
+		final BroadcastMicroblog oldLow = mb("old low", 10);
+		final BroadcastMicroblog newLow = mb("new low", 10);
+		final BroadcastMicroblog high = mb("high", 0);
+		Assert.assertTrue(mbs.insert(oldLow));
+		Assert.assertTrue(mbs.insert(newLow));
+		Assert.assertTrue(mbs.insert(high));
+		Assert.assertFalse(mbs.insert(mb("high", 0)), "Duplicates shouldn't be queued twice");
+
+		// Full, so the oldest of the lowest priority goes
+		final BroadcastMicroblog middle = mb("middle", 5);
+		Assert.assertTrue(mbs.insert(middle));
+		Assert.assertEquals(mbs.size(), 3);
+		Assert.assertFalse(mbs.contains(oldLow));
+		Assert.assertFalse(mbs.insert(mb("lowest", 20)), "Lower priority than everything queued");
+
+		mbs.changeBroadcastPriority(newLow, -1);
+		Assert.assertSame(mbs.getMicroblogForBroadcast(), newLow);
+		Assert.assertSame(mbs.getMicroblogForBroadcast(), high);
+		Assert.assertTrue(mbs.remove(middle));
+		Assert.assertNull(mbs.getMicroblogForBroadcast());
+		Assert.assertTrue(mbs.isLikelyToContain(oldLow.getDedupHash()));
+	}
+
+	private static BroadcastMicroblog aged(final String message, final int priority, final int ageMinutes) {
+		final BroadcastMicroblog mb = new BroadcastMicroblog(message, new GeneralMicroblogInfo("", "", null, System
+				.currentTimeMillis() - ageMinutes * 60l * 1000));
+		mb.priority = priority;
+		return mb;
+	}
+
+	@Test
+	public void decayAndExpiryTest() {
+		final MicroblogsForBroadcast mbs = new MicroblogsForBroadcast(10, new DecayingBroadcastPolicy());
+		final BroadcastMicroblog oldButImportant = aged("old but important", 0, 20);
+		final BroadcastMicroblog fresh = aged("fresh", 5, 0);
+		final BroadcastMicroblog farTravelled = aged("far travelled", 5, 0);
+		farTravelled.hops = 10;
+		Assert.assertTrue(mbs.insert(oldButImportant));
+		Assert.assertTrue(mbs.insert(farTravelled));
+		Assert.assertTrue(mbs.insert(fresh));
+
+		final BroadcastMicroblog tooManyHops = aged("too many hops", 0, 0);
+		tooManyHops.hops = TrConstants.BROADCAST_MAX_HOPS + 1;
+		Assert.assertFalse(mbs.insert(tooManyHops));
+		Assert.assertFalse(mbs.insert(aged("expired", 0, TrConstants.BROADCAST_TTL_MINUTES + 1)));
+
+		Assert.assertSame(mbs.getMicroblogForBroadcast(), fresh);
+		Assert.assertSame(mbs.getMicroblogForBroadcast(), farTravelled);
+		Assert.assertSame(mbs.getMicroblogForBroadcast(), oldButImportant);
+	}
+
+	@Test
+	public void futureDatedTest() {
+		final MicroblogsForBroadcast mbs = new MicroblogsForBroadcast(10, new DecayingBroadcastPolicy());
+		final int skew = TrConstants.BROADCAST_MAX_CLOCK_SKEW_MINUTES;
+		Assert.assertFalse(mbs.insert(aged("from the far future", 0, -skew - 1)));
+
+		// A little ahead is treated as if it were just created
+		final BroadcastMicroblog fresh = aged("fresh", 0, 0);
+		final BroadcastMicroblog postDated = aged("post-dated", 0, -skew + 1);
+		final BroadcastMicroblog priority = aged("priority", -1, 0);
+		Assert.assertTrue(mbs.insert(fresh));
+		Assert.assertTrue(mbs.insert(postDated));
+		Assert.assertTrue(mbs.insert(priority));
+		Assert.assertSame(mbs.getMicroblogForBroadcast(), priority, "Post-dating shouldn't jump the queue");
+		Assert.assertEquals(new DecayingBroadcastPolicy().getExpiryTime(postDated), new DecayingBroadcastPolicy()
+				.getExpiryTime(fresh), 1000);
+	}
+
+	@Test
+	public void negativeHopsTest() {
+		final MicroblogsForBroadcast mbs = new MicroblogsForBroadcast(10, new DecayingBroadcastPolicy());
+		final BroadcastMicroblog negative = aged("negative hops", 0, 0);
+		negative.hops = Integer.MIN_VALUE;
+		final BroadcastMicroblog priority = aged("priority", -1, 0);
+		Assert.assertTrue(mbs.insert(negative));
+		Assert.assertTrue(mbs.insert(priority));
+		Assert.assertSame(mbs.getMicroblogForBroadcast(), priority, "Negative hops shouldn't jump the queue");
+	}
+}
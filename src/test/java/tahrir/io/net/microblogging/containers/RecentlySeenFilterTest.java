@@ -0,0 +1,27 @@
+package tahrir.io.net.microblogging.containers;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.tools.TrBloomFilter;
+
+public class RecentlySeenFilterTest {
+
+	@Test
+	public void oldWindowsAreForgottenTest() {
+		final RecentlySeenFilter seen = new RecentlySeenFilter(2, Long.MAX_VALUE, 100, 0.001);
+		seen.put(1);
+		seen.rotate();
+		seen.put(2);
+		Assert.assertTrue(seen.mightContain(1));
+		Assert.assertTrue(seen.mightContain(2));
+
+		final TrBloomFilter summary = seen.getSummary();
+		Assert.assertTrue(summary.mightContain(1));
+		Assert.assertTrue(summary.mightContain(2));
+
+		seen.rotate();
+		Assert.assertFalse(seen.mightContain(1));
+		Assert.assertTrue(seen.mightContain(2));
+	}
+}
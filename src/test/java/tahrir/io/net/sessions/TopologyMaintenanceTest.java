@@ -3,9 +3,14 @@ package tahrir.io.net.sessions;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import tahrir.TrConstants;
 import tahrir.TrNode;
+import tahrir.io.net.RemoteNodeAddress;
+import tahrir.tools.TrBloomFilter;
 import tahrir.tools.TrUtils;
 
+import com.google.common.collect.Lists;
+
 public class TopologyMaintenanceTest {
 	private static int port = 8644;
 
@@ -40,4 +45,26 @@ public class TopologyMaintenanceTest {
 		Assert.assertTrue(TrUtils.TestUtils.isConnected(initiator, responder), "The initiator should be connected to responder");
 		Assert.assertTrue(TrUtils.TestUtils.isConnected(forwarder1, responder), "The first forwarder should be connected to responder");
 	}
+
+	@Test
+	public void malformedVisitedFilterTest() throws Exception {
+		final TrNode node = TrUtils.TestUtils.makeNode(port++, false, false, false, false, 4, 4);
+		final TopologyMaintenanceSessionImpl sess = node.sessionMgr.getOrCreateLocalSession(TopologyMaintenanceSessionImpl.class);
+
+		final TrBloomFilter tooBig = new TrBloomFilter(TrConstants.TOPOLOGY_PROBE_VISITED_FILTER_BITS * 1024,
+				TrConstants.TOPOLOGY_PROBE_VISITED_FILTER_HASHES);
+		final TrBloomFilter tooManyHashes = new TrBloomFilter(TrConstants.TOPOLOGY_PROBE_VISITED_FILTER_BITS,
+				Integer.MAX_VALUE);
+		sess.probeForLocation(0, TrConstants.MAINTENANCE_HOPS_TO_LIVE, Lists.<RemoteNodeAddress> newLinkedList(), tooBig);
+		sess.probeForLocation(0, TrConstants.MAINTENANCE_HOPS_TO_LIVE, Lists.<RemoteNodeAddress> newLinkedList(),
+				tooManyHashes);
+		sess.probeForLocation(0, TrConstants.MAINTENANCE_HOPS_TO_LIVE, Lists.<RemoteNodeAddress> newLinkedList(), null);
+		Assert.assertFalse(tooBig.mightContainObject(node.getRemoteNodeAddress().physicalLocation));
+		Assert.assertFalse(node.peerManager.hasForwardedRecenlty, "A malformed probe shouldn't have been handled");
+
+		final TrBloomFilter visited = new TrBloomFilter(TrConstants.TOPOLOGY_PROBE_VISITED_FILTER_BITS,
+				TrConstants.TOPOLOGY_PROBE_VISITED_FILTER_HASHES);
+		sess.probeForLocation(0, TrConstants.MAINTENANCE_HOPS_TO_LIVE, Lists.<RemoteNodeAddress> newLinkedList(), visited);
+		Assert.assertTrue(visited.mightContainObject(node.getRemoteNodeAddress().physicalLocation));
+	}
 }
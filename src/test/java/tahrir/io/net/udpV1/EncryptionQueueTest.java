@@ -0,0 +1,113 @@
+package tahrir.io.net.udpV1;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class EncryptionQueueTest {
+
+	@Test
+	public void orderTest() throws Exception {
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		final EncryptionQueue queue = new EncryptionQueue(executor, 8);
+		final List<Integer> sent = Collections.synchronizedList(new ArrayList<Integer>());
+		final int count = 1000;
+		for (int x = 0; x < count; x++) {
+			final int id = x;
+			queue.add(new Runnable() {
+
+				public void run() {
+					sent.add(id);
+				}
+			}, true);
+		}
+		executor.shutdown();
+		while (sent.size() < count) {
+			Thread.sleep(10);
+		}
+		for (int x = 0; x < count; x++) {
+			Assert.assertEquals(sent.get(x).intValue(), x);
+		}
+		Assert.assertEquals(queue.availablePermits(), 8);
+	}
+
+	@Test
+	public void failureReleasesPermitTest() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		final EncryptionQueue queue = new EncryptionQueue(executor, 2);
+		final CountDownLatch done = new CountDownLatch(1);
+		for (int x = 0; x < 5; x++) {
+			queue.add(new Runnable() {
+
+				public void run() {
+					throw new RuntimeException("Failed to encrypt");
+				}
+			}, true);
+		}
+		queue.add(new Runnable() {
+
+			public void run() {
+				done.countDown();
+			}
+		}, true);
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		executor.shutdown();
+		executor.awaitTermination(5, TimeUnit.SECONDS);
+		Assert.assertEquals(queue.availablePermits(), 2);
+	}
+
+	@Test
+	public void exhaustionTest() throws Exception {
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		final CountDownLatch unblock = new CountDownLatch(1);
+		// Keep the only encryption thread busy
+		executor.execute(new Runnable() {
+
+			public void run() {
+				try {
+					unblock.await();
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		final EncryptionQueue queue = new EncryptionQueue(executor, 2);
+		final Runnable noop = new Runnable() {
+
+			public void run() {
+			}
+		};
+		queue.add(noop, true);
+		queue.add(noop, true);
+		Assert.assertEquals(queue.availablePermits(), 0);
+
+		// A caller that mustn't block goes over the limit instead
+		queue.add(noop, false);
+		Assert.assertEquals(queue.availablePermits(), 0);
+
+		// Anyone else waits for room
+		final CountDownLatch added = new CountDownLatch(1);
+		final Thread blocked = new Thread() {
+			@Override
+			public void run() {
+				try {
+					queue.add(noop, true);
+					added.countDown();
+				} catch (final Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		blocked.start();
+		Assert.assertFalse(added.await(200, TimeUnit.MILLISECONDS));
+
+		unblock.countDown();
+		Assert.assertTrue(added.await(5, TimeUnit.SECONDS));
+		executor.shutdown();
+		executor.awaitTermination(5, TimeUnit.SECONDS);
+		// Going over the limit didn't cost a permit
+		Assert.assertEquals(queue.availablePermits(), 2);
+	}
+}
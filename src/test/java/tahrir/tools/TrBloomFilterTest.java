@@ -0,0 +1,68 @@
+package tahrir.tools;
+
+import java.io.*;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import tahrir.io.serialization.TrSerializer;
+
+public class TrBloomFilterTest {
+
+	@Test
+	public void membershipAndSerializationTest() throws Exception {
+		final TrBloomFilter filter = TrBloomFilter.create(100, 0.01);
+		for (int x = 0; x < 100; x++) {
+			filter.putObject("in-" + x);
+		}
+
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		TrSerializer.serializeTo(filter, new DataOutputStream(baos));
+		final TrBloomFilter received = TrSerializer.deserializeFrom(TrBloomFilter.class, new DataInputStream(
+				new ByteArrayInputStream(baos.toByteArray())));
+
+		int falsePositives = 0;
+		for (int x = 0; x < 1000; x++) {
+			Assert.assertTrue(received.mightContainObject("in-" + (x % 100)));
+			if (received.mightContainObject("out-" + x)) {
+				falsePositives++;
+			}
+		}
+		Assert.assertTrue(falsePositives < 40, "Too many false positives: " + falsePositives);
+	}
+
+	@Test
+	public void validityTest() throws Exception {
+		Assert.assertTrue(new TrBloomFilter(128, 7).isValid(128, 7));
+		Assert.assertFalse(new TrBloomFilter(256, 7).isValid(128, 7));
+		Assert.assertFalse(new TrBloomFilter(128, 8).isValid(128, 7));
+		Assert.assertFalse(new TrBloomFilter(128, 0).isValid(128, 7));
+
+		// What a peer could send us
+		Assert.assertFalse(asReceived(null, 7).isValid(128, 7));
+		Assert.assertFalse(asReceived(new long[0], 7).isValid(128, 7));
+		Assert.assertFalse(asReceived(new long[2], Integer.MAX_VALUE).isValid(128, 7));
+		Assert.assertTrue(asReceived(new long[2], 7).isValid(128, 7));
+	}
+
+	/**
+	 * Write a filter's fields out the way {@link TrSerializer} would, so that
+	 * we can send ones it would never produce
+	 */
+	private static TrBloomFilter asReceived(final long[] bits, final int hashCount) throws Exception {
+		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		final DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeByte(bits == null ? 1 : 2);
+		if (bits != null) {
+			dos.writeInt(TrBloomFilter.class.getDeclaredField("bits").hashCode());
+			dos.writeInt(bits.length);
+			for (final long l : bits) {
+				TrSerializer.serializeTo(l, dos);
+			}
+		}
+		dos.writeInt(TrBloomFilter.class.getDeclaredField("hashCount").hashCode());
+		TrSerializer.serializeTo(hashCount, dos);
+		return TrSerializer.deserializeFrom(TrBloomFilter.class, new DataInputStream(new ByteArrayInputStream(
+				baos.toByteArray())));
+	}
+}
@@ -0,0 +1,28 @@
+package tahrir.tools;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TrRandomTest {
+
+	@Test
+	public void betaMomentsTest() {
+		// Includes shapes below 1, which take a different path
+		final double[][] shapes = { { 1, 1 }, { 2, 5 }, { 0.5, 0.5 }, { 11, 3 } };
+		final int samples = 200000;
+		for (final double[] shape : shapes) {
+			final double a = shape[0], b = shape[1];
+			double sum = 0, sqSum = 0;
+			for (int x = 0; x < samples; x++) {
+				final double s = TrRandom.nextBeta(a, b);
+				Assert.assertTrue(s >= 0 && s <= 1);
+				sum += s;
+				sqSum += s * s;
+			}
+			final double mean = sum / samples;
+			final double variance = sqSum / samples - mean * mean;
+			Assert.assertEquals(mean, a / (a + b), 0.01);
+			Assert.assertEquals(variance, a * b / ((a + b) * (a + b) * (a + b + 1)), 0.005);
+		}
+	}
+}